@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.Main;
+
+/**
+ * Entry point of target/benchmarks.jar. Runs JMH with the given command line plus the GC profiler
+ * ({@code -prof gc}), so that every run reports the bytes allocated per operation next to the
+ * timings, and allocation regressions on the hot paths show up as readily as slowdowns.
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {}
+
+  public static void main(String[] args) throws Exception {
+    List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+    boolean hasGcProfiler = false;
+    for (int i = 0; i + 1 < args.length; i++) {
+      hasGcProfiler |= args[i].equals("-prof") && args[i + 1].startsWith("gc");
+    }
+    if (!hasGcProfiler) {
+      jmhArgs.add("-prof");
+      jmhArgs.add("gc");
+    }
+    Main.main(jmhArgs.toArray(new String[0]));
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.protobuf.ByteString;
+import com.google.sps.blobs.BlobInfoCache;
+import com.google.sps.blobs.BlobReader;
+import com.google.sps.cache.InMemoryRemoteCache;
+import com.google.sps.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the assembly of a blob from its MAX_BLOB_FETCH_SIZE chunks by {@link BlobReader}, alone
+ * and followed by the digest used as the key of the landmark cache, against a fake {@link
+ * BlobstoreService} that copies each requested range out of an in-memory array, as the real
+ * fetchData returns a new array per call.
+ *
+ * <p>The fake answers instantly, so the benchmark isolates the copying and allocation done by the
+ * reader; {@code maxParallelFetches} shows the overhead of the fetch pool when there is no network
+ * latency to hide. The blob size is looked up in a {@link BlobInfoCache} that holds it already.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlobReaderBenchmark {
+
+  /** Sizes below, at about two and at about eight fetch chunks. */
+  @Param({"200000", "2000000", "8000000"})
+  public int blobSize;
+
+  @Param({"1", "4"})
+  public int maxParallelFetches;
+
+  private final BlobKey blobKey = new BlobKey("AMIfv9benchmark");
+
+  private BlobReader blobReader;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    byte[] blobBytes = new byte[blobSize];
+    new Random(42).nextBytes(blobBytes);
+    BlobstoreService blobstoreService =
+        (BlobstoreService)
+            Proxy.newProxyInstance(
+                BlobstoreService.class.getClassLoader(),
+                new Class<?>[] {BlobstoreService.class},
+                (proxy, method, args) -> {
+                  if (!method.getName().equals("fetchData")) {
+                    throw new UnsupportedOperationException(method.getName());
+                  }
+                  // Indexes are inclusive, and a range past the end is cut at the end.
+                  int startIndex = (int) (long) args[1];
+                  int endIndex = (int) Math.min((long) args[2], blobBytes.length - 1);
+                  return Arrays.copyOfRange(
+                      blobBytes, Math.min(startIndex, blobBytes.length), endIndex + 1);
+                });
+
+    BlobInfoCache blobInfoCache =
+        new BlobInfoCache(null, new InMemoryRemoteCache(), 100, 3_600_000L, 1_000L);
+    blobInfoCache.put(
+        new BlobInfo(blobKey, "image/jpeg", new Date(), "benchmark.jpg", blobSize));
+    blobReader =
+        new BlobReader(
+            blobstoreService,
+            blobInfoCache,
+            Executors::defaultThreadFactory,
+            maxParallelFetches,
+            new LatencyHistogram());
+  }
+
+  @Benchmark
+  public ByteString readBlob() throws IOException {
+    return blobReader.readBlob(blobKey);
+  }
+
+  @Benchmark
+  public String readAndDigestBlob() throws IOException {
+    return BlobReader.digest(blobReader.readBlob(blobKey));
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.sps.comments.CommentPageFormat;
+import com.google.sps.data.Comment;
+import com.google.sps.data.Landmark;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the time taken to encode a comment thread in each {@link CommentPageFormat} served by
+ * /comment-data, with and without gzip compression. The encoded size of the thread in each
+ * configuration is printed during setup.
+ *
+ * <p>The thread holds {@code numComments} generated comments, a third of which have an image and
+ * a detected landmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommentEncodingBenchmark {
+
+  @Param({"10000"})
+  public int numComments;
+
+  @Param({"JSON", "PROTOBUF"})
+  public CommentPageFormat format;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  private List<Comment> comments;
+
+  private ByteArrayOutputStream buffer;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Random random = new Random(42);
+    comments = new ArrayList<>(numComments);
+    for (int i = 0; i < numComments; i++) {
+      String text = "Comment " + i + " about the portfolio, number " + random.nextInt(1000);
+      if (i % 3 == 0) {
+        BlobKey blobKey = new BlobKey("AMIfv9" + Long.toHexString(random.nextLong()) + i);
+        Landmark landmark =
+            new Landmark(
+                "Landmark " + random.nextInt(100),
+                random.nextFloat() * 180 - 90,
+                random.nextFloat() * 360 - 180);
+        comments.add(
+            new Comment(
+                text, Collections.singletonList(blobKey), Collections.singletonList(landmark)));
+      } else {
+        comments.add(new Comment(text, Collections.emptyList(), Collections.emptyList()));
+      }
+    }
+
+    buffer = new ByteArrayOutputStream(1 << 20);
+    System.out.printf(
+        "%n%s%s: %d comments -> %d bytes%n",
+        format, gzip ? " + gzip" : "", numComments, encodeThread());
+  }
+
+  @Benchmark
+  public int encodeThread() throws IOException {
+    buffer.reset();
+    OutputStream out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+    format.writePrefix(out);
+    for (int i = 0; i < comments.size(); i++) {
+      if (i > 0) {
+        format.writeSeparator(out);
+      }
+      out.write(format.encodeComment(comments.get(i)));
+    }
+    format.writeSuffix(out, null);
+    out.close();
+    return buffer.size();
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.comments.CommentEntities;
+import com.google.sps.comments.CommentPageFormat;
+import com.google.sps.data.Comment;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the mapping of Comment kind Entities into {@link Comment} objects with {@link
+ * CommentEntities#toComment}, alone and followed by the JSON encoding of each comment, which is
+ * what ListCommentsServlet does for every comment of a queried page.
+ *
+ * <p>A third of the {@code numComments} generated entities have two images and two landmarks
+ * stored as list properties, and a tenth of those store a single image and landmark the way
+ * comments did before they could hold several images. Entity keys need an App Engine environment,
+ * so a fake one is installed on the setup thread while the entities are created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommentMappingBenchmark {
+
+  @Param({"100", "10000", "100000"})
+  public int numComments;
+
+  private List<Entity> commentEntities;
+
+  private ByteArrayOutputStream buffer;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ApiProxy.setEnvironmentForCurrentThread(
+        (ApiProxy.Environment)
+            Proxy.newProxyInstance(
+                ApiProxy.Environment.class.getClassLoader(),
+                new Class<?>[] {ApiProxy.Environment.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "getAppId":
+                      return "s~benchmark";
+                    case "getAttributes":
+                      return new HashMap<String, Object>();
+                    default:
+                      return method.getReturnType() == boolean.class ? false : null;
+                  }
+                }));
+    try {
+      createEntities();
+    } finally {
+      ApiProxy.clearEnvironmentForCurrentThread();
+    }
+    buffer = new ByteArrayOutputStream(1 << 20);
+  }
+
+  private void createEntities() {
+    Random random = new Random(42);
+    commentEntities = new ArrayList<>(numComments);
+    for (int i = 0; i < numComments; i++) {
+      Entity commentEntity = new Entity("Comment");
+      commentEntity.setProperty(
+          "text", "Comment " + i + " about the portfolio, number " + random.nextInt(1000));
+      commentEntity.setProperty("timestamp", 1_600_000_000_000L + i);
+      if (i % 3 == 0) {
+        BlobKey firstBlobKey = new BlobKey("AMIfv9" + Long.toHexString(random.nextLong()));
+        BlobKey secondBlobKey = new BlobKey("AMIfv9" + Long.toHexString(random.nextLong()));
+        GeoPt firstGeoPt = new GeoPt(random.nextFloat() * 90, random.nextFloat() * 180);
+        GeoPt secondGeoPt = new GeoPt(random.nextFloat() * 90, random.nextFloat() * 180);
+        if (i % 30 == 0) {
+          commentEntity.setProperty("blobKey", firstBlobKey);
+          commentEntity.setProperty("landmarkName", "Landmark " + i);
+          commentEntity.setProperty("landmarkGeoPt", firstGeoPt);
+        } else {
+          commentEntity.setProperty("blobKey", Arrays.asList(firstBlobKey, secondBlobKey));
+          commentEntity.setProperty(
+              "landmarkName", Arrays.asList("Landmark " + i, "Landmark " + (i + 1)));
+          commentEntity.setProperty("landmarkGeoPt", Arrays.asList(firstGeoPt, secondGeoPt));
+        }
+        commentEntity.setProperty("landmarkState", "DETECTED");
+      }
+      commentEntities.add(commentEntity);
+    }
+  }
+
+  @Benchmark
+  public void toComment(Blackhole blackhole) {
+    for (Entity commentEntity : commentEntities) {
+      blackhole.consume(CommentEntities.toComment(commentEntity));
+    }
+  }
+
+  @Benchmark
+  public int toCommentAndEncode() throws IOException {
+    buffer.reset();
+    CommentPageFormat format = CommentPageFormat.JSON;
+    format.writePrefix(buffer);
+    for (int i = 0; i < commentEntities.size(); i++) {
+      if (i > 0) {
+        format.writeSeparator(buffer);
+      }
+      buffer.write(format.encodeComment(CommentEntities.toComment(commentEntities.get(i))));
+    }
+    format.writeSuffix(buffer, null);
+    return buffer.size();
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import com.google.sps.data.Landmark;
+import com.google.sps.json.JsonAdapters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of serializing a page of comments with Gson's reflective adapters,
+ * either through a new {@link Gson} per request (as the servlets used to do) or through a shared
+ * instance, against the hand-written adapters of {@link JsonAdapters}. Lists of {@link Landmark}
+ * objects, as returned by /comments-near, are serialized with the hand-written adapters as well.
+ *
+ * <p>Lists range from a page of 100 comments to 100k comments, so that the cost per comment can be
+ * compared across sizes. target/benchmarks.jar runs with the GC profiler, which also reports the
+ * allocation rate of each variant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonAdapterBenchmark {
+
+  @Param({"100", "10000", "100000"})
+  public int pageSize;
+
+  private final Gson sharedReflectiveGson = new Gson();
+
+  private List<Comment> comments;
+
+  private List<Landmark> landmarks;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    comments = new ArrayList<>(pageSize);
+    landmarks = new ArrayList<>(pageSize);
+    for (int i = 0; i < pageSize; i++) {
+      String text = "Comment " + i + " about the portfolio, number " + random.nextInt(1000);
+      if (i % 3 == 0) {
+        comments.add(
+            new Comment(
+                text,
+                Collections.singletonList(
+                    new BlobKey("AMIfv9" + Long.toHexString(random.nextLong()))),
+                Collections.singletonList(
+                    new Landmark(
+                        "Landmark " + i, random.nextFloat() * 90, random.nextFloat() * 180))));
+      } else {
+        comments.add(new Comment(text, Collections.emptyList(), Collections.emptyList()));
+      }
+      landmarks.add(
+          new Landmark("Landmark " + i, random.nextFloat() * 90, random.nextFloat() * 180));
+    }
+  }
+
+  @Benchmark
+  public String reflectiveGsonPerRequest() {
+    return new Gson().toJson(comments);
+  }
+
+  @Benchmark
+  public String reflectiveGsonShared() {
+    return sharedReflectiveGson.toJson(comments);
+  }
+
+  @Benchmark
+  public String handWrittenAdapters() {
+    return JsonAdapters.GSON.toJson(comments);
+  }
+
+  @Benchmark
+  public String handWrittenLandmarkAdapters() {
+    return JsonAdapters.GSON.toJson(landmarks);
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.google.sps.images.ImageDownscaler;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long {@link ImageDownscaler} takes to shrink the images of the portfolio site
+ * before landmark detection. The original and downscaled sizes of each image are printed during
+ * setup.
+ *
+ * <p>The images are read from the directory given by the 'images.dir' system property, which
+ * defaults to the portfolio webapp images when run from this directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageDownscalerBenchmark {
+
+  @Param({"zghera.jpg", "zghera-wide.jpg", "amp.jpg", "engr161.png", "rov.png"})
+  public String imageName;
+
+  @Param({"640"})
+  public int maxEdge;
+
+  private ImageDownscaler imageDownscaler;
+
+  private ByteString imageBytes;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String imagesDir = System.getProperty("images.dir", "../portfolio/src/main/webapp/images");
+    imageBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(imagesDir, imageName)));
+    imageDownscaler = new ImageDownscaler(maxEdge, 0.85f, 1, 1);
+
+    ByteString downscaledBytes = imageDownscaler.downscale(imageBytes);
+    System.out.printf(
+        "%n%s: %d bytes -> %d bytes%n", imageName, imageBytes.size(), downscaledBytes.size());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    imageDownscaler.close();
+  }
+
+  @Benchmark
+  public ByteString downscale() throws IOException {
+    return imageDownscaler.downscale(imageBytes);
+  }
+}
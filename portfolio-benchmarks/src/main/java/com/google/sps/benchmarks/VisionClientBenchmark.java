@@ -0,0 +1,157 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.benchmarks;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+import com.google.protobuf.ByteString;
+import com.google.sps.landmarks.VisionClientHolder;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-upload latency of a Vision API landmark call when a new {@code
+ * ImageAnnotatorClient} is created and closed for every upload (as NewCommentServlet used to do)
+ * versus when the shared client of {@link VisionClientHolder} is reused.
+ *
+ * <p>The calls go to a fake ImageAnnotator gRPC service on localhost that answers every request
+ * with a fixed landmark, so the difference between the two benchmarks is the cost of the client
+ * lifecycle rather than the Vision API itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VisionClientBenchmark {
+
+  private static final MethodDescriptor<BatchAnnotateImagesRequest, BatchAnnotateImagesResponse>
+      BATCH_ANNOTATE_IMAGES =
+          MethodDescriptor.<BatchAnnotateImagesRequest, BatchAnnotateImagesResponse>newBuilder()
+              .setType(MethodDescriptor.MethodType.UNARY)
+              .setFullMethodName("google.cloud.vision.v1.ImageAnnotator/BatchAnnotateImages")
+              .setRequestMarshaller(
+                  ProtoUtils.marshaller(BatchAnnotateImagesRequest.getDefaultInstance()))
+              .setResponseMarshaller(
+                  ProtoUtils.marshaller(BatchAnnotateImagesResponse.getDefaultInstance()))
+              .build();
+
+  @Param({"1", "4"})
+  public int channelPoolSize;
+
+  private Server fakeVisionServer;
+
+  private ImageAnnotatorSettings settings;
+
+  private VisionClientHolder clientHolder;
+
+  private List<AnnotateImageRequest> requests;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    BatchAnnotateImagesResponse landmarkResponse =
+        BatchAnnotateImagesResponse.newBuilder()
+            .addResponses(
+                AnnotateImageResponse.newBuilder()
+                    .addLandmarkAnnotations(
+                        EntityAnnotation.newBuilder().setDescription("Purdue University")))
+            .build();
+    fakeVisionServer =
+        ServerBuilder.forPort(0)
+            .addService(
+                ServerServiceDefinition.builder("google.cloud.vision.v1.ImageAnnotator")
+                    .addMethod(
+                        BATCH_ANNOTATE_IMAGES,
+                        ServerCalls.asyncUnaryCall(
+                            (request, responseObserver) -> {
+                              responseObserver.onNext(landmarkResponse);
+                              responseObserver.onCompleted();
+                            }))
+                    .build())
+            .build()
+            .start();
+
+    settings =
+        ImageAnnotatorSettings.newBuilder()
+            .setCredentialsProvider(NoCredentialsProvider.create())
+            .setTransportChannelProvider(
+                InstantiatingGrpcChannelProvider.newBuilder()
+                    .setEndpoint("localhost:" + fakeVisionServer.getPort())
+                    .setChannelConfigurator(channelBuilder -> channelBuilder.usePlaintext())
+                    .setPoolSize(channelPoolSize)
+                    .build())
+            .build();
+    clientHolder = new VisionClientHolder(settings);
+
+    Image image = Image.newBuilder().setContent(ByteString.copyFrom(new byte[64 * 1024])).build();
+    Feature feature = Feature.newBuilder().setType(Feature.Type.LANDMARK_DETECTION).build();
+    requests =
+        Collections.singletonList(
+            AnnotateImageRequest.newBuilder().addFeatures(feature).setImage(image).build());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    clientHolder.close();
+    fakeVisionServer.shutdownNow().awaitTermination();
+  }
+
+  /** One upload with a client created and closed for the upload. */
+  @Benchmark
+  public BatchAnnotateImagesResponse clientPerUpload() throws IOException {
+    ImageAnnotatorClient client = ImageAnnotatorClient.create(settings);
+    try {
+      return client.batchAnnotateImages(requests);
+    } finally {
+      client.close();
+    }
+  }
+
+  /** One upload with the shared client. */
+  @Benchmark
+  public BatchAnnotateImagesResponse sharedClient() throws IOException {
+    return clientHolder.getClient().batchAnnotateImages(requests);
+  }
+}
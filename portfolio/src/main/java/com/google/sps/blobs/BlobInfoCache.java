@@ -0,0 +1,74 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.blobs;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.sps.cache.RemoteCache;
+import com.google.sps.cache.TieredCache;
+import java.io.IOException;
+
+/**
+ * Two-level read-through cache of Blobstore metadata, keyed by blob key. The metadata of a blob
+ * never changes, so entries only leave the cache when they expire or are evicted, and a cached
+ * entry may outlive its blob for up to the time-to-live of the cache.
+ *
+ * <p>This class is thread-safe.
+ */
+public class BlobInfoCache extends TieredCache<BlobInfo> {
+
+  private final BlobInfoFactory blobInfoFactory;
+
+  /**
+   * @param datastore The Datastore holding the __BlobInfo__ kind Entities.
+   * @param remoteCache The cache shared by every instance.
+   * @param maxEntries The maximum number of entries held in process.
+   * @param ttlMillis The number of milliseconds an entry may be served after it was cached.
+   * @param lockMillis The maximum number of milliseconds a load waits for the same load on another
+   *     instance.
+   */
+  public BlobInfoCache(
+      DatastoreService datastore,
+      RemoteCache remoteCache,
+      int maxEntries,
+      long ttlMillis,
+      long lockMillis) {
+    super("blobInfo:", remoteCache, maxEntries, ttlMillis, ttlMillis, lockMillis);
+    this.blobInfoFactory = new BlobInfoFactory(datastore);
+  }
+
+  /**
+   * Looks up the metadata of a blob.
+   *
+   * @param blobKey The key of the blob.
+   * @return The metadata of the blob, or null if the blob does not exist.
+   * @throws IOException - If the metadata could not be loaded.
+   */
+  public BlobInfo get(BlobKey blobKey) throws IOException {
+    return get(blobKey.getKeyString(), () -> blobInfoFactory.loadBlobInfo(blobKey));
+  }
+
+  /**
+   * Adds the metadata of a blob that was just uploaded, so that the landmark task of its comment
+   * finds it in the cache on any instance.
+   *
+   * @param blobInfo The metadata of the blob.
+   */
+  public void put(BlobInfo blobInfo) {
+    put(blobInfo.getBlobKey().getKeyString(), blobInfo);
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.blobs;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.sps.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Reads blobs from the Blobstore, which serves at most MAX_BLOB_FETCH_SIZE bytes per fetchData
+ * call.
+ *
+ * <p>{@link #readBlob} preallocates a single array of the blob size, fetches the chunks of the
+ * blob in parallel and copies each chunk straight into its place in the array. The array is then
+ * wrapped in a {@code ByteString} without copying it again, so it can be handed to protobuf
+ * requests (such as Vision API requests) as is. The size of a blob is read from the {@link
+ * BlobInfoCache}, so repeated reads of the same blob do not look its metadata up in the Datastore.
+ *
+ * <p>This class is thread-safe.
+ */
+public class BlobReader {
+
+  private final BlobstoreService blobstoreService;
+
+  private final BlobInfoCache blobInfoCache;
+
+  private final Supplier<ThreadFactory> threadFactorySupplier;
+
+  private final int maxParallelFetches;
+
+  private final LatencyHistogram fetchLatency;
+
+  /**
+   * @param blobstoreService The Blobstore to read from.
+   * @param blobInfoCache The cache the sizes of blobs are looked up in.
+   * @param threadFactorySupplier Supplies the factory for the threads that fetch chunks in
+   *     parallel. It is called once per read, so that on App Engine it can return the factory of
+   *     the current request (the threads must be able to call the Blobstore API).
+   * @param maxParallelFetches The maximum number of chunks of one blob fetched at the same time.
+   * @param fetchLatency The histogram the latency of every fetchData call is recorded in.
+   */
+  public BlobReader(
+      BlobstoreService blobstoreService,
+      BlobInfoCache blobInfoCache,
+      Supplier<ThreadFactory> threadFactorySupplier,
+      int maxParallelFetches,
+      LatencyHistogram fetchLatency) {
+    this.blobstoreService = blobstoreService;
+    this.blobInfoCache = blobInfoCache;
+    this.threadFactorySupplier = threadFactorySupplier;
+    this.maxParallelFetches = maxParallelFetches;
+    this.fetchLatency = fetchLatency;
+  }
+
+  /**
+   * Reads the whole content of a blob, looking its size up in the Blobstore metadata.
+   *
+   * @param blobKey The key of the blob to read.
+   * @return The content of the blob.
+   * @throws IOException - If the blob does not exist or could not be read in full.
+   */
+  public ByteString readBlob(BlobKey blobKey) throws IOException {
+    BlobInfo blobInfo = blobInfoCache.get(blobKey);
+    if (blobInfo == null) {
+      throw new IOException("Blob " + blobKey.getKeyString() + " does not exist");
+    }
+    return readBlob(blobKey, blobInfo.getSize());
+  }
+
+  /**
+   * Reads the whole content of a blob of known size.
+   *
+   * @param blobKey The key of the blob to read.
+   * @param size The size of the blob in bytes.
+   * @return The content of the blob, wrapping the array the chunks were fetched into.
+   * @throws IOException - If the blob could not be read in full.
+   */
+  public ByteString readBlob(BlobKey blobKey, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Blob " + blobKey.getKeyString() + " is too large to read: " + size);
+    }
+
+    byte[] blobBytes = new byte[(int) size];
+    int maxChunkSize = BlobstoreService.MAX_BLOB_FETCH_SIZE;
+    int numChunks = (int) ((size + maxChunkSize - 1) / maxChunkSize);
+
+    if (numChunks <= 1 || maxParallelFetches <= 1) {
+      for (int chunkIndex = 0; chunkIndex < numChunks; chunkIndex++) {
+        fetchChunk(blobKey, blobBytes, chunkIndex);
+      }
+    } else {
+      fetchChunksInParallel(blobKey, blobBytes, numChunks);
+    }
+
+    return UnsafeByteOperations.unsafeWrap(blobBytes);
+  }
+
+  /**
+   * Computes the SHA-256 digest of the content of a blob that was already read, so that a blob
+   * which is hashed and then used is only fetched once.
+   *
+   * @param blobBytes The content of the blob, as returned by {@link #readBlob}.
+   * @return The hex encoded digest of the content.
+   */
+  public static String digest(ByteString blobBytes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+    // Reads the wrapped array in place instead of copying it.
+    digest.update(blobBytes.asReadOnlyByteBuffer());
+
+    StringBuilder hexDigest = new StringBuilder();
+    for (byte digestByte : digest.digest()) {
+      hexDigest.append(String.format("%02x", digestByte));
+    }
+    return hexDigest.toString();
+  }
+
+  /**
+   * Fetches every chunk but the first on a short-lived pool of at most maxParallelFetches threads,
+   * while the calling thread fetches the first chunk.
+   */
+  private void fetchChunksInParallel(BlobKey blobKey, byte[] blobBytes, int numChunks)
+      throws IOException {
+    ExecutorService fetchExecutor =
+        Executors.newFixedThreadPool(
+            Math.min(maxParallelFetches, numChunks) - 1, threadFactorySupplier.get());
+    try {
+      List<Future<Void>> fetches = new ArrayList<>();
+      for (int chunkIndex = 1; chunkIndex < numChunks; chunkIndex++) {
+        int fetchedChunkIndex = chunkIndex;
+        fetches.add(
+            fetchExecutor.submit(
+                () -> {
+                  fetchChunk(blobKey, blobBytes, fetchedChunkIndex);
+                  return null;
+                }));
+      }
+
+      fetchChunk(blobKey, blobBytes, 0);
+      for (Future<Void> fetch : fetches) {
+        fetch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading blob " + blobKey.getKeyString(), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to read blob " + blobKey.getKeyString(), e.getCause());
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Fetches one MAX_BLOB_FETCH_SIZE chunk of a blob into its place in {@code blobBytes}.
+   *
+   * @throws IOException - If the Blobstore returned fewer bytes than the chunk holds.
+   */
+  private void fetchChunk(BlobKey blobKey, byte[] blobBytes, int chunkIndex) throws IOException {
+    int startIndex = chunkIndex * BlobstoreService.MAX_BLOB_FETCH_SIZE;
+    int chunkSize = Math.min(BlobstoreService.MAX_BLOB_FETCH_SIZE, blobBytes.length - startIndex);
+
+    // end index is inclusive
+    long fetchStart = System.nanoTime();
+    byte[] chunkBytes = blobstoreService.fetchData(blobKey, startIndex, startIndex + chunkSize - 1);
+    fetchLatency.record(System.nanoTime() - fetchStart);
+    if (chunkBytes.length != chunkSize) {
+      throw new IOException(
+          String.format(
+              "Expected %d bytes at index %d of blob %s but read %d",
+              chunkSize, startIndex, blobKey.getKeyString(), chunkBytes.length));
+    }
+    System.arraycopy(chunkBytes, 0, blobBytes, startIndex, chunkSize);
+  }
+}
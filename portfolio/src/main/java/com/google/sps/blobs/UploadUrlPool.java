@@ -0,0 +1,177 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.blobs;
+
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.sps.metrics.LatencyHistogram;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of Blobstore upload URLs created ahead of time, so that /blobstore-upload-url answers
+ * without waiting for a createUploadUrl call.
+ *
+ * <p>URLs are kept in a lock-free queue, oldest first, and each URL is handed out once. A URL
+ * older than {@code maxAgeMillis} is discarded instead of handed out, which leaves the user most of
+ * the lifetime of the upload session to submit the form. When the pool runs empty, the one URL
+ * handed out is created on the spot, so a user request makes at most one createUploadUrl call.
+ *
+ * <p>The pool is never refilled on a user request: on App Engine standard the response is only sent
+ * once the request returns, so every URL created there would add to its latency. Instead, {@link
+ * #refill()} is called by a cron job. The pool lives in the memory of one instance, and a cron
+ * request only reaches one instance, so requests served by other instances create their URL on the
+ * spot, as if the pool were empty.
+ *
+ * <p>This class is thread-safe.
+ */
+public class UploadUrlPool {
+
+  private final BlobstoreService blobstoreService;
+
+  private final String successPath;
+
+  private final int targetSize;
+
+  private final long maxAgeMillis;
+
+  private final LatencyHistogram createLatency;
+
+  private final ConcurrentLinkedQueue<PooledUrl> urls = new ConcurrentLinkedQueue<>();
+
+  /** The number of URLs in the queue, which is costly to count. */
+  private final AtomicInteger size = new AtomicInteger();
+
+  private final AtomicBoolean isRefilling = new AtomicBoolean();
+
+  private final AtomicLong numServed = new AtomicLong();
+  private final AtomicLong numDepleted = new AtomicLong();
+  private final AtomicLong numExpired = new AtomicLong();
+  private final AtomicLong numCreated = new AtomicLong();
+
+  /**
+   * @param blobstoreService The Blobstore service that creates the upload URLs.
+   * @param successPath The path the Blobstore forwards the upload request to.
+   * @param targetSize The number of URLs the pool is refilled to.
+   * @param maxAgeMillis The number of milliseconds after which a URL is no longer handed out.
+   * @param createLatency The histogram recording the latency of each createUploadUrl call.
+   */
+  public UploadUrlPool(
+      BlobstoreService blobstoreService,
+      String successPath,
+      int targetSize,
+      long maxAgeMillis,
+      LatencyHistogram createLatency) {
+    this.blobstoreService = blobstoreService;
+    this.successPath = successPath;
+    this.targetSize = targetSize;
+    this.maxAgeMillis = maxAgeMillis;
+    this.createLatency = createLatency;
+  }
+
+  /**
+   * Hands out an upload URL, creating one if the pool is empty.
+   *
+   * @return An upload URL that has not been handed out before.
+   */
+  public String take() {
+    long now = System.currentTimeMillis();
+    PooledUrl url;
+    while ((url = urls.poll()) != null) {
+      size.decrementAndGet();
+      if (now - url.createdAt <= maxAgeMillis) {
+        numServed.incrementAndGet();
+        return url.url;
+      }
+      numExpired.incrementAndGet();
+    }
+
+    numDepleted.incrementAndGet();
+    return createUrl().url;
+  }
+
+  /**
+   * Replaces the URLs older than half of {@code maxAgeMillis}, which would expire before the next
+   * refill, and fills the pool up to {@code targetSize} URLs. Called by the refill cron job;
+   * returns at once if another request is already refilling the pool.
+   */
+  public void refill() {
+    if (!isRefilling.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      long now = System.currentTimeMillis();
+      PooledUrl oldest;
+      while ((oldest = urls.peek()) != null && now - oldest.createdAt > maxAgeMillis / 2) {
+        if (urls.remove(oldest)) {
+          size.decrementAndGet();
+          numExpired.incrementAndGet();
+        }
+      }
+
+      while (size.get() < targetSize) {
+        urls.add(createUrl());
+        size.incrementAndGet();
+      }
+    } finally {
+      isRefilling.set(false);
+    }
+  }
+
+  /** Returns the number of URLs handed out from the pool. */
+  public long getNumServed() {
+    return numServed.get();
+  }
+
+  /** Returns the number of requests that found the pool empty and created a URL on the spot. */
+  public long getNumDepleted() {
+    return numDepleted.get();
+  }
+
+  /** Returns the number of URLs discarded because they were too old. */
+  public long getNumExpired() {
+    return numExpired.get();
+  }
+
+  /** Returns the number of createUploadUrl calls. */
+  public long getNumCreated() {
+    return numCreated.get();
+  }
+
+  /** Returns the number of URLs in the pool. */
+  public int getSize() {
+    return size.get();
+  }
+
+  private PooledUrl createUrl() {
+    long startNanos = System.nanoTime();
+    String url = blobstoreService.createUploadUrl(successPath);
+    createLatency.record(System.nanoTime() - startNanos);
+    numCreated.incrementAndGet();
+    return new PooledUrl(url, System.currentTimeMillis());
+  }
+
+  /** An upload URL along with the time it was created. */
+  private static class PooledUrl {
+    private final String url;
+    private final long createdAt;
+
+    private PooledUrl(String url, long createdAt) {
+      this.url = url;
+      this.createdAt = createdAt;
+    }
+  }
+}
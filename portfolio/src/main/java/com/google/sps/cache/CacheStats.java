@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.cache;
+
+/**
+ * Class representing a point-in-time snapshot of the counters of a cache.
+ *
+ * <p>Note: The private variables in this class are converted into JSON.
+ */
+public class CacheStats {
+
+  private final long hits;
+
+  private final long misses;
+
+  /** Entries removed to keep the cache within its maximum size. */
+  private final long evictions;
+
+  /** Entries removed because they outlived the time-to-live of the cache. */
+  private final long expirations;
+
+  private final int size;
+
+  /** The fraction of lookups answered from the cache (0 if there were no lookups). */
+  private final double hitRatio;
+
+  /**
+   * @param hits The number of lookups that were answered from the cache.
+   * @param misses The number of lookups that were not answered from the cache.
+   * @param evictions The number of entries removed to stay within the maximum size.
+   * @param expirations The number of entries removed because they were too old.
+   * @param size The number of entries currently in the cache.
+   */
+  public CacheStats(long hits, long misses, long evictions, long expirations, int size) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.expirations = expirations;
+    this.size = size;
+    this.hitRatio = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getExpirations() {
+    return expirations;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public double getHitRatio() {
+    return hitRatio;
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.cache;
+
+/**
+ * Two-level read-through cache of serialized comment feed pages (the bodies returned by
+ * /comment-data), keyed by thread revision, wire format, page cursor and page size.
+ *
+ * <p>Pages are cached in process and in the {@link RemoteCache} shared by every App Engine
+ * instance, and concurrent misses for a page load it once (see {@link TieredCache}). Writers to the
+ * Comment kind call {@link #invalidate()}, which clears every page held in process. Every write
+ * changes the revision of the {@link CommentThreadVersion} stamp, so pages cached for an older
+ * revision, on this instance or in the remote cache, are no longer looked up and age out.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentFeedCache extends TieredCache<byte[]> {
+
+  /**
+   * @param remoteCache The cache shared by every instance.
+   * @param maxEntries The maximum number of pages held in process.
+   * @param ttlMillis The number of milliseconds a page may be served after it was cached.
+   * @param lockMillis The maximum number of milliseconds a page load waits for the same load on
+   *     another instance.
+   */
+  public CommentFeedCache(
+      RemoteCache remoteCache, int maxEntries, long ttlMillis, long lockMillis) {
+    super("commentPage:", remoteCache, maxEntries, ttlMillis, ttlMillis, lockMillis);
+  }
+
+  /**
+   * Builds the key that identifies a single page of the comment feed.
+   *
+   * @param revision The revision of the comment thread the page was read from.
+   * @param format The name of the wire format of the page.
+   * @param cursor The web-safe start cursor of the page (null or empty for the first page).
+   * @param pageSize The number of comments in the page.
+   * @return The cache key for the page.
+   */
+  public static String pageKey(long revision, String format, String cursor, int pageSize) {
+    return revision + "|" + format + "|" + (cursor == null ? "" : cursor) + "|" + pageSize;
+  }
+}
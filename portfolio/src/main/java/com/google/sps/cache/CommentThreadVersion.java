@@ -0,0 +1,194 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.cache;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import java.util.ConcurrentModificationException;
+
+/**
+ * Version stamp of the comment thread, stored in a single CommentThreadVersion kind Entity and
+ * updated by every write to the Comment kind. Reading the stamp is a single key lookup, which lets
+ * /comment-data answer conditional requests without running the comments query.
+ *
+ * <p>Besides the number of comments and the newest comment timestamp, the stamp has a revision
+ * that is incremented on every write. The revision also changes when an existing comment is
+ * updated (for example when its landmark is detected), which neither the count nor the newest
+ * timestamp reflect.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentThreadVersion {
+
+  /** The number of times a stamp update is attempted when it conflicts with another write. */
+  private static final int MAX_ATTEMPTS = 5;
+
+  private static final Key STAMP_KEY = KeyFactory.createKey("CommentThreadVersion", "comments");
+
+  private final DatastoreService datastore;
+
+  /** @param datastore The Datastore holding the CommentThreadVersion kind. */
+  public CommentThreadVersion(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /** Returns the current stamp of the comment thread. */
+  public Stamp get() {
+    try {
+      return new Stamp(datastore.get(STAMP_KEY));
+    } catch (EntityNotFoundException e) {
+      return new Stamp(0, 0, 0, 0);
+    }
+  }
+
+  /**
+   * Records that comments were added to the thread.
+   *
+   * @param numComments The number of comments added.
+   * @param newestTimestamp The largest timestamp of the added comments.
+   * @return The updated stamp.
+   */
+  public Stamp recordNewComments(int numComments, long newestTimestamp) {
+    return update(
+        stamp ->
+            new Stamp(
+                stamp.revision + 1,
+                stamp.count + numComments,
+                Math.max(stamp.newestTimestamp, newestTimestamp),
+                System.currentTimeMillis()));
+  }
+
+  /**
+   * Records that an existing comment was changed.
+   *
+   * @return The updated stamp.
+   */
+  public Stamp recordUpdatedComment() {
+    return update(
+        stamp ->
+            new Stamp(
+                stamp.revision + 1,
+                stamp.count,
+                stamp.newestTimestamp,
+                System.currentTimeMillis()));
+  }
+
+  /**
+   * Records that comments were deleted from the thread.
+   *
+   * @param numComments The number of comments deleted.
+   * @return The updated stamp.
+   */
+  public Stamp recordDeletedComments(long numComments) {
+    return update(
+        stamp -> {
+          long count = Math.max(0, stamp.count - numComments);
+          return new Stamp(
+              stamp.revision + 1,
+              count,
+              count == 0 ? 0 : stamp.newestTimestamp,
+              System.currentTimeMillis());
+        });
+  }
+
+  /** Applies a change to the stored stamp in a transaction, retrying on contention. */
+  private Stamp update(StampUpdate stampUpdate) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return updateInTransaction(stampUpdate);
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private Stamp updateInTransaction(StampUpdate stampUpdate) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Stamp stamp;
+      try {
+        stamp = new Stamp(datastore.get(txn, STAMP_KEY));
+      } catch (EntityNotFoundException e) {
+        stamp = new Stamp(0, 0, 0, 0);
+      }
+
+      Stamp updatedStamp = stampUpdate.apply(stamp);
+      datastore.put(txn, updatedStamp.toEntity());
+      txn.commit();
+      return updatedStamp;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /** A change to the stamp, computed from the stamp read in the transaction. */
+  private interface StampUpdate {
+    Stamp apply(Stamp stamp);
+  }
+
+  /** An immutable version of the comment thread. */
+  public static class Stamp {
+    private final long revision;
+    private final long count;
+    private final long newestTimestamp;
+    private final long updatedAt;
+
+    private Stamp(long revision, long count, long newestTimestamp, long updatedAt) {
+      this.revision = revision;
+      this.count = count;
+      this.newestTimestamp = newestTimestamp;
+      this.updatedAt = updatedAt;
+    }
+
+    private Stamp(Entity stampEntity) {
+      this(
+          (Long) stampEntity.getProperty("revision"),
+          (Long) stampEntity.getProperty("count"),
+          (Long) stampEntity.getProperty("newestTimestamp"),
+          (Long) stampEntity.getProperty("updatedAt"));
+    }
+
+    private Entity toEntity() {
+      Entity stampEntity = new Entity(STAMP_KEY);
+      stampEntity.setUnindexedProperty("revision", revision);
+      stampEntity.setUnindexedProperty("count", count);
+      stampEntity.setUnindexedProperty("newestTimestamp", newestTimestamp);
+      stampEntity.setUnindexedProperty("updatedAt", updatedAt);
+      return stampEntity;
+    }
+
+    /** Returns the number of writes made to the thread so far. */
+    public long getRevision() {
+      return revision;
+    }
+
+    /** Returns the time of the last write to the thread, in milliseconds since the epoch. */
+    public long getUpdatedAt() {
+      return updatedAt;
+    }
+
+    /** Returns the quoted entity tag that identifies this version of the thread. */
+    public String toETag() {
+      return "\"" + revision + "-" + count + "-" + newestTimestamp + "\"";
+    }
+  }
+}
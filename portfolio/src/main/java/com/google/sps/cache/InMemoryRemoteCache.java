@@ -0,0 +1,86 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remote cache that keeps values in memory. Used in benchmarks in place of App Engine
+ * Memcache, and by the app when the 'sps.remoteCache' system property is set to "memory".
+ *
+ * <p>This class is thread-safe.
+ */
+public class InMemoryRemoteCache implements RemoteCache {
+
+  private final ConcurrentMap<String, CachedValue> values = new ConcurrentHashMap<>();
+
+  @Override
+  public Object get(String key) {
+    CachedValue cached = values.get(key);
+    if (cached == null) {
+      return null;
+    }
+    if (cached.isExpired()) {
+      values.remove(key, cached);
+      return null;
+    }
+    return cached.value;
+  }
+
+  @Override
+  public void put(String key, Object value, long ttlMillis) {
+    values.put(key, new CachedValue(value, ttlMillis));
+  }
+
+  @Override
+  public AddResult add(String key, Object value, long ttlMillis) {
+    CachedValue added = new CachedValue(value, ttlMillis);
+    CachedValue cached = values.putIfAbsent(key, added);
+    // An expired value does not block the add.
+    while (cached != null && cached.isExpired()) {
+      if (values.replace(key, cached, added)) {
+        return AddResult.ADDED;
+      }
+      cached = values.putIfAbsent(key, added);
+    }
+    return cached == null ? AddResult.ADDED : AddResult.ALREADY_PRESENT;
+  }
+
+  @Override
+  public void delete(String key) {
+    values.remove(key);
+  }
+
+  /** Returns the number of values held, including expired values not removed yet. */
+  public int getSize() {
+    return values.size();
+  }
+
+  /** A value along with the time it expires. */
+  private static class CachedValue {
+    private final Object value;
+    private final long expiresAt;
+
+    private CachedValue(Object value, long ttlMillis) {
+      this.value = value;
+      this.expiresAt = System.currentTimeMillis() + ttlMillis;
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAt;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.cache;
+
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Remote cache backed by App Engine Memcache. Memcache errors are logged and treated as misses, so
+ * that an unavailable Memcache only makes lookups fall through to the Datastore. The service throws
+ * on errors instead of logging them itself, so that {@link #add} can report a failure apart from a
+ * key that is already present.
+ *
+ * <p>This class is thread-safe.
+ */
+public class MemcacheRemoteCache implements RemoteCache {
+
+  private final MemcacheService memcache;
+
+  /** @param namespace The Memcache namespace the values are stored in. */
+  public MemcacheRemoteCache(String namespace) {
+    memcache = MemcacheServiceFactory.getMemcacheService(namespace);
+    memcache.setErrorHandler(ErrorHandlers.getStrict());
+  }
+
+  @Override
+  public Object get(String key) {
+    try {
+      return memcache.get(key);
+    } catch (RuntimeException e) {
+      System.err.println("Error: Unable to read " + key + " from Memcache: " + e);
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String key, Object value, long ttlMillis) {
+    try {
+      memcache.put(key, value, Expiration.byDeltaMillis((int) ttlMillis));
+    } catch (RuntimeException e) {
+      // Thrown for values over the Memcache size limit, among others.
+      System.err.println("Error: Unable to write " + key + " to Memcache: " + e);
+    }
+  }
+
+  @Override
+  public AddResult add(String key, Object value, long ttlMillis) {
+    try {
+      boolean added =
+          memcache.put(
+              key,
+              value,
+              Expiration.byDeltaMillis((int) ttlMillis),
+              MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      return added ? AddResult.ADDED : AddResult.ALREADY_PRESENT;
+    } catch (RuntimeException e) {
+      System.err.println("Error: Unable to add " + key + " to Memcache: " + e);
+      return AddResult.FAILED;
+    }
+  }
+
+  @Override
+  public void delete(String key) {
+    try {
+      memcache.delete(key);
+    } catch (RuntimeException e) {
+      System.err.println("Error: Unable to delete " + key + " from Memcache: " + e);
+    }
+  }
+}
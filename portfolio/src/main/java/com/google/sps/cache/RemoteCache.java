@@ -0,0 +1,71 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.cache;
+
+/**
+ * Cache shared by every App Engine instance of the app, used as the second level of a {@link
+ * TieredCache}. Values must be serializable. Implementations are best-effort: a failed lookup
+ * behaves like a miss and a failed write is dropped. Only {@link #add} reports failures, so that a
+ * caller using it as a lock can tell a lock held elsewhere from an unavailable cache.
+ */
+public interface RemoteCache {
+
+  /**
+   * Looks up a value.
+   *
+   * @param key The key of the value.
+   * @return The cached value, or null if it is not cached or has expired.
+   */
+  Object get(String key);
+
+  /**
+   * Stores a value, replacing any value cached under the same key.
+   *
+   * @param key The key of the value.
+   * @param value The value to store.
+   * @param ttlMillis The number of milliseconds after which the value expires.
+   */
+  void put(String key, Object value, long ttlMillis);
+
+  /**
+   * Stores a value unless a value is already cached under the same key.
+   *
+   * @param key The key of the value.
+   * @param value The value to store.
+   * @param ttlMillis The number of milliseconds after which the value expires.
+   * @return Whether the value was stored, was not stored because a value is already cached, or
+   *     could not be stored because the cache failed.
+   */
+  AddResult add(String key, Object value, long ttlMillis);
+
+  /**
+   * Removes a value, if it is cached.
+   *
+   * @param key The key of the value.
+   */
+  void delete(String key);
+
+  /** The outcome of {@link #add}. */
+  enum AddResult {
+    /** The value was stored. */
+    ADDED,
+
+    /** A value was already cached under the key, so the value was not stored. */
+    ALREADY_PRESENT,
+
+    /** The cache failed, so whether a value is cached under the key is unknown. */
+    FAILED
+  }
+}
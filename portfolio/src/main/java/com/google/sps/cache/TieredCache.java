@@ -0,0 +1,311 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Two-level read-through cache: an in-process LRU cache (L1) in front of a {@link RemoteCache}
+ * shared by every instance (L2), in front of the Datastore.
+ *
+ * <p>Loads are single-flight, so that a cold cache does not fan out identical Datastore queries.
+ * On one instance, concurrent misses for the same key wait for the first of them to load the
+ * value. Across instances, the loading request adds a short-lived lock entry to the remote cache
+ * first; requests that find the lock taken poll the remote cache for the value for up to {@code
+ * lockMillis} before they load it themselves. If the lock cannot be added because the remote cache
+ * failed, the value is loaded at once, as on a plain miss. Only the request that added the lock
+ * removes it.
+ *
+ * <p>L1 holds at most {@code maxEntries} values, evicting the least recently used value when it is
+ * full, and drops values older than {@code localTtlMillis}. {@link #invalidate()} only clears L1:
+ * callers whose values change put a version in the key, so that stale L2 values are no longer
+ * looked up and age out after {@code remoteTtlMillis}. Null values are never cached.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @param <V> The type of the cached values, which must be serializable.
+ */
+public class TieredCache<V> {
+
+  /** The number of milliseconds between two lookups of a value another instance is loading. */
+  private static final long LOCK_POLL_MILLIS = 20;
+
+  private final String namespace;
+
+  private final RemoteCache remoteCache;
+
+  private final int maxEntries;
+
+  private final long localTtlMillis;
+
+  private final long remoteTtlMillis;
+
+  private final long lockMillis;
+
+  /** Values in least-recently-used first order. Guarded by {@code this}. */
+  private final LinkedHashMap<String, CachedValue<V>> values;
+
+  /** The loads in progress on this instance, by key. */
+  private final ConcurrentMap<String, CompletableFuture<V>> inFlightLoads =
+      new ConcurrentHashMap<>();
+
+  /** Incremented every time the cache is invalidated. Guarded by {@code this}. */
+  private long version = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long expirations = 0;
+  private long remoteHits = 0;
+  private long loads = 0;
+  private long coalescedLoads = 0;
+
+  /**
+   * @param namespace The prefix of the keys of this cache in the remote cache.
+   * @param remoteCache The cache shared by every instance.
+   * @param maxEntries The maximum number of values held in process.
+   * @param localTtlMillis The number of milliseconds a value is served from the process after it
+   *     was cached there.
+   * @param remoteTtlMillis The number of milliseconds a value is held in the remote cache.
+   * @param lockMillis The maximum number of milliseconds a load waits for the same load on another
+   *     instance.
+   */
+  public TieredCache(
+      String namespace,
+      RemoteCache remoteCache,
+      int maxEntries,
+      long localTtlMillis,
+      long remoteTtlMillis,
+      long lockMillis) {
+    this.namespace = namespace;
+    this.remoteCache = remoteCache;
+    this.maxEntries = maxEntries;
+    this.localTtlMillis = localTtlMillis;
+    this.remoteTtlMillis = remoteTtlMillis;
+    this.lockMillis = lockMillis;
+    this.values = new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+  }
+
+  /**
+   * Looks up a value, loading it on a miss in both levels.
+   *
+   * @param key The key of the value.
+   * @param loader Loads the value from the Datastore. It is not called if another request on this
+   *     instance is already loading the same key.
+   * @return The value (null if the loader returned null).
+   * @throws IOException - If the loader failed, including when it was called by a concurrent
+   *     request for the same key.
+   */
+  public V get(String key, Loader<V> loader) throws IOException {
+    V value = getLocal(key);
+    if (value != null) {
+      return value;
+    }
+
+    CompletableFuture<V> load = new CompletableFuture<>();
+    CompletableFuture<V> inFlightLoad = inFlightLoads.putIfAbsent(key, load);
+    if (inFlightLoad != null) {
+      synchronized (this) {
+        coalescedLoads++;
+      }
+      return await(key, inFlightLoad);
+    }
+
+    try {
+      long loadedVersion = getVersion();
+      value = getRemoteOrLoad(key, loader);
+      putLocal(key, value, loadedVersion);
+      load.complete(value);
+      return value;
+    } catch (IOException | RuntimeException | Error e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlightLoads.remove(key, load);
+    }
+  }
+
+  /**
+   * Adds a value that was obtained without a lookup to both levels, so that later lookups on any
+   * instance do not load it.
+   *
+   * @param key The key of the value.
+   * @param value The value, which must not be modified afterwards.
+   */
+  public void put(String key, V value) {
+    putLocal(key, value, getVersion());
+    remoteCache.put(namespace + key, value, remoteTtlMillis);
+  }
+
+  /** Drops every value held in process. */
+  public synchronized void invalidate() {
+    version++;
+    values.clear();
+  }
+
+  /** Returns a snapshot of the hit, miss, eviction and expiration counters of the process level. */
+  public synchronized CacheStats getStats() {
+    return new CacheStats(hits, misses, evictions, expirations, values.size());
+  }
+
+  /** Returns the number of process misses that were answered from the remote cache. */
+  public synchronized long getNumRemoteHits() {
+    return remoteHits;
+  }
+
+  /** Returns the number of values loaded by this instance. */
+  public synchronized long getNumLoads() {
+    return loads;
+  }
+
+  /** Returns the number of misses that waited for a load in progress instead of loading. */
+  public synchronized long getNumCoalescedLoads() {
+    return coalescedLoads;
+  }
+
+  private synchronized long getVersion() {
+    return version;
+  }
+
+  private synchronized V getLocal(String key) {
+    CachedValue<V> cached = values.get(key);
+    if (cached != null && System.currentTimeMillis() - cached.cachedAt > localTtlMillis) {
+      values.remove(key);
+      expirations++;
+      cached = null;
+    }
+
+    if (cached == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return cached.value;
+  }
+
+  /** Adds a value to the process level, unless the cache was invalidated since it was loaded. */
+  private synchronized void putLocal(String key, V value, long loadedVersion) {
+    if (value == null || loadedVersion != version) {
+      return;
+    }
+
+    values.put(key, new CachedValue<>(value, System.currentTimeMillis()));
+    Iterator<Map.Entry<String, CachedValue<V>>> leastRecentlyUsed = values.entrySet().iterator();
+    while (values.size() > maxEntries) {
+      leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Reads a value from the remote cache, or loads it and stores it there. While another instance
+   * holds the lock of the key, the remote cache is polled instead, until the lock expires.
+   * Failures of the remote cache do not make the load wait.
+   */
+  @SuppressWarnings("unchecked")
+  private V getRemoteOrLoad(String key, Loader<V> loader) throws IOException {
+    String remoteKey = namespace + key;
+    String lockKey = namespace + "lock:" + key;
+    long lockDeadline = System.currentTimeMillis() + lockMillis;
+    boolean holdsLock;
+    while (true) {
+      V value = (V) remoteCache.get(remoteKey);
+      if (value != null) {
+        synchronized (this) {
+          remoteHits++;
+        }
+        return value;
+      }
+      RemoteCache.AddResult lock = remoteCache.add(lockKey, Boolean.TRUE, lockMillis);
+      if (lock != RemoteCache.AddResult.ALREADY_PRESENT
+          || System.currentTimeMillis() >= lockDeadline) {
+        holdsLock = lock == RemoteCache.AddResult.ADDED;
+        break;
+      }
+      try {
+        Thread.sleep(LOCK_POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for " + key, e);
+      }
+    }
+
+    try {
+      synchronized (this) {
+        loads++;
+      }
+      V value = loader.load();
+      if (value != null) {
+        remoteCache.put(remoteKey, value, remoteTtlMillis);
+      }
+      return value;
+    } finally {
+      // The lock of a load that gave up waiting still belongs to the other loader.
+      if (holdsLock) {
+        remoteCache.delete(lockKey);
+      }
+    }
+  }
+
+  /** Waits for a load started by a concurrent request for the same key. */
+  private static <V> V await(String key, CompletableFuture<V> load) throws IOException {
+    try {
+      return load.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for " + key, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Unable to load " + key, e.getCause());
+    }
+  }
+
+  /**
+   * Loads a value that is in neither level of the cache.
+   *
+   * @param <V> The type of the value.
+   */
+  public interface Loader<V> {
+    /**
+     * @return The value (null if there is none, which is not cached).
+     * @throws IOException - If the value could not be loaded.
+     */
+    V load() throws IOException;
+  }
+
+  /** A value along with the time it was added to the process level. */
+  private static class CachedValue<V> {
+    private final V value;
+    private final long cachedAt;
+
+    private CachedValue(V value, long cachedAt) {
+      this.value = value;
+      this.cachedAt = cachedAt;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.comments;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.sps.data.Comment;
+import com.google.sps.data.Landmark;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Conversions between Comment kind Entities and the objects returned to the front end.
+ *
+ * <p>The 'blobKey', 'landmarkName', 'landmarkGeoPt' and 'landmarkGeohash' properties of a comment
+ * hold one value per image or landmark. Comments stored before comments could hold several images
+ * have a single value in each property, which is read as a list of one value.
+ */
+public final class CommentEntities {
+
+  private CommentEntities() {}
+
+  /**
+   * Converts a Comment kind Entity into a Comment object.
+   *
+   * @param commentEntity The Comment kind Entity read from the Datastore.
+   * @return The Comment object corresponding to commentEntity.
+   */
+  public static Comment toComment(Entity commentEntity) {
+    List<String> landmarkNames = getValues(commentEntity, "landmarkName");
+    List<GeoPt> landmarkGeoPts = getValues(commentEntity, "landmarkGeoPt");
+    List<Landmark> landmarks = new ArrayList<>(landmarkNames.size());
+    for (int i = 0; i < landmarkNames.size(); i++) {
+      GeoPt landmarkGeoPt = landmarkGeoPts.get(i);
+      landmarks.add(
+          new Landmark(
+              landmarkNames.get(i), landmarkGeoPt.getLatitude(), landmarkGeoPt.getLongitude()));
+    }
+    return new Comment(
+        (String) commentEntity.getProperty("text"),
+        CommentEntities.<BlobKey>getValues(commentEntity, "blobKey"),
+        landmarks);
+  }
+
+  /**
+   * Returns the values of a property that may hold several values.
+   *
+   * @param commentEntity The Comment kind Entity read from the Datastore.
+   * @param propertyName The name of the property.
+   * @return The values of the property, which is empty if the property is missing or null.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> List<T> getValues(Entity commentEntity, String propertyName) {
+    Object value = commentEntity.getProperty(propertyName);
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    if (value instanceof Collection) {
+      return new ArrayList<>((Collection<T>) value);
+    }
+    return Collections.singletonList((T) value);
+  }
+}
@@ -0,0 +1,466 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.comments;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.Comment;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Materialized snapshot of the newest {@code maxComments} comments of the feed, stored in a single
+ * CommentFeedSnapshot kind Entity. Each comment is kept pre-encoded in every {@link
+ * CommentPageFormat}, concatenated into one Blob per format, so a feed page covered by the
+ * snapshot is served with a single key lookup and copies of byte ranges to the response, without
+ * reading or converting any Comment kind Entity.
+ *
+ * <p>The snapshot records the {@link com.google.sps.cache.CommentThreadVersion} revision it
+ * reflects. Writers apply their change to the snapshot incrementally when it is exactly one
+ * revision behind theirs, and delete it otherwise (for example when two writers race), in which
+ * case the next read rebuilds it with one query.
+ *
+ * <p>The encoded comments of the snapshot are kept within MAX_ENCODED_BYTES, so that the entity
+ * stays under the Datastore entity size limit even when comments are long. A snapshot cut short
+ * this way is not complete, and pages past its end are read from the Comment kind as usual.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentFeedSnapshot {
+
+  private static final CommentPageFormat[] FORMATS = CommentPageFormat.values();
+
+  private static final Key SNAPSHOT_KEY = KeyFactory.createKey("CommentFeedSnapshot", "newest");
+
+  /**
+   * The largest total length of the encodings stored in the snapshot, which leaves room below the
+   * 1 MiB entity size limit for the positions and offsets.
+   */
+  private static final long MAX_ENCODED_BYTES = 900_000;
+
+  private final DatastoreService datastore;
+
+  private final int maxComments;
+
+  /**
+   * @param datastore The Datastore holding the Comment and CommentFeedSnapshot kinds.
+   * @param maxComments The number of newest comments kept in the snapshot.
+   */
+  public CommentFeedSnapshot(DatastoreService datastore, int maxComments) {
+    this.datastore = datastore;
+    this.maxComments = maxComments;
+  }
+
+  /**
+   * Returns the snapshot, rebuilding it if the stored snapshot is missing or is older than the
+   * given revision.
+   *
+   * @param revision The current revision of the comment thread.
+   * @return A snapshot that reflects at least {@code revision}.
+   */
+  public Contents get(long revision) {
+    try {
+      Contents contents = Contents.fromEntity(datastore.get(SNAPSHOT_KEY));
+      if (contents != null && contents.revision >= revision) {
+        return contents;
+      }
+    } catch (EntityNotFoundException e) {
+      // The snapshot is rebuilt below.
+    }
+
+    Query query =
+        new Query("Comment")
+            .addSort("timestamp", SortDirection.DESCENDING)
+            .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.ASCENDING);
+    List<Entry> entries = new ArrayList<>();
+    for (Entity commentEntity :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withLimit(maxComments))) {
+      entries.add(new Entry(commentEntity));
+    }
+    List<Entry> storedEntries = trim(entries);
+    Contents rebuilt =
+        new Contents(
+            revision,
+            entries.size() < maxComments && storedEntries.size() == entries.size(),
+            storedEntries);
+
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Contents stored = load(txn);
+      if (stored == null || stored.revision < revision) {
+        datastore.put(txn, rebuilt.toEntity());
+        txn.commit();
+      }
+    } catch (ConcurrentModificationException e) {
+      // Another request stored a snapshot at the same time; this one is still valid to serve.
+    } catch (IllegalArgumentException e) {
+      // The snapshot could not be stored, for example because it is too large; it is still valid
+      // to serve.
+      System.err.println("Error: Unable to store the comment feed snapshot: " + e);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+    return rebuilt;
+  }
+
+  /**
+   * Adds newly stored comments to the snapshot. Comments the snapshot already holds are skipped,
+   * as a snapshot rebuilt between the put of the comments and the update of the thread stamp may
+   * already include them.
+   *
+   * @param commentEntities The stored Comment kind Entities.
+   * @param revision The revision of the comment thread once the comments were stored.
+   */
+  public void addComments(List<Entity> commentEntities, long revision) {
+    update(
+        revision,
+        entries -> {
+          Set<FeedPosition> positions = new HashSet<>();
+          for (Entry entry : entries) {
+            positions.add(entry.position);
+          }
+          for (Entity commentEntity : commentEntities) {
+            if (positions.add(FeedPosition.of(commentEntity))) {
+              entries.add(new Entry(commentEntity));
+            }
+          }
+          entries.sort((a, b) -> a.position.compareTo(b.position));
+        });
+  }
+
+  /**
+   * Replaces a comment of the snapshot with its updated version.
+   *
+   * @param commentEntity The updated Comment kind Entity.
+   * @param revision The revision of the comment thread once the comment was updated.
+   */
+  public void updateComment(Entity commentEntity, long revision) {
+    Entry updated = new Entry(commentEntity);
+    update(
+        revision,
+        entries -> {
+          for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).position.equals(updated.position)) {
+              entries.set(i, updated);
+            }
+          }
+        });
+  }
+
+  /** Deletes the snapshot, so that the next read rebuilds it. */
+  public void clear() {
+    datastore.delete(SNAPSHOT_KEY);
+  }
+
+  /**
+   * Applies a change to the stored snapshot in a transaction if the snapshot is one revision
+   * behind, and deletes the snapshot otherwise.
+   */
+  private void update(long revision, EntriesUpdate entriesUpdate) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Contents stored = load(txn);
+      if (stored == null) {
+        return;
+      }
+
+      if (stored.revision != revision - 1) {
+        datastore.delete(txn, SNAPSHOT_KEY);
+      } else {
+        List<Entry> entries = stored.getEntries();
+        entriesUpdate.apply(entries);
+        List<Entry> storedEntries = trim(entries);
+        boolean complete = stored.complete && storedEntries.size() == entries.size();
+        datastore.put(txn, new Contents(revision, complete, storedEntries).toEntity());
+      }
+      txn.commit();
+    } catch (ConcurrentModificationException e) {
+      clear();
+    } catch (IllegalArgumentException e) {
+      System.err.println("Error: Unable to update the comment feed snapshot: " + e);
+      clear();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Returns the newest entries that fit within maxComments comments and MAX_ENCODED_BYTES bytes.
+   *
+   * @param entries Entries in feed order.
+   * @return A prefix of {@code entries}.
+   */
+  private List<Entry> trim(List<Entry> entries) {
+    long encodedBytes = 0;
+    int size = 0;
+    while (size < entries.size() && size < maxComments) {
+      for (byte[] encoding : entries.get(size).encodings) {
+        encodedBytes += encoding.length;
+      }
+      if (encodedBytes > MAX_ENCODED_BYTES) {
+        break;
+      }
+      size++;
+    }
+    return entries.subList(0, size);
+  }
+
+  private Contents load(Transaction txn) {
+    try {
+      return Contents.fromEntity(datastore.get(txn, SNAPSHOT_KEY));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /** A change to the comments of the snapshot, in feed order. */
+  private interface EntriesUpdate {
+    void apply(List<Entry> entries);
+  }
+
+  /** A comment of the snapshot: its feed position and its encoding in every format. */
+  private static class Entry {
+    private final FeedPosition position;
+
+    /** The encoded comment, indexed by the ordinal of the format. */
+    private final byte[][] encodings;
+
+    private Entry(FeedPosition position, byte[][] encodings) {
+      this.position = position;
+      this.encodings = encodings;
+    }
+
+    private Entry(Entity commentEntity) {
+      this.position = FeedPosition.of(commentEntity);
+      this.encodings = new byte[FORMATS.length][];
+      Comment comment = CommentEntities.toComment(commentEntity);
+      for (CommentPageFormat format : FORMATS) {
+        encodings[format.ordinal()] = format.encodeComment(comment);
+      }
+    }
+  }
+
+  /** An immutable snapshot of the newest comments of the feed, in feed order. */
+  public static class Contents {
+    private final long revision;
+
+    /** True if the snapshot holds every comment of the thread. */
+    private final boolean complete;
+
+    private final FeedPosition[] positions;
+
+    /** The concatenated encodings of every comment, indexed by the ordinal of the format. */
+    private final byte[][] encoded;
+
+    /**
+     * offsets[format][i] is the index in {@code encoded[format]} where comment i starts, and
+     * offsets[format][size] is the length of {@code encoded[format]}.
+     */
+    private final int[][] offsets;
+
+    private Contents(
+        long revision,
+        boolean complete,
+        FeedPosition[] positions,
+        byte[][] encoded,
+        int[][] offsets) {
+      this.revision = revision;
+      this.complete = complete;
+      this.positions = positions;
+      this.encoded = encoded;
+      this.offsets = offsets;
+    }
+
+    private Contents(long revision, boolean complete, List<Entry> entries) {
+      this.revision = revision;
+      this.complete = complete;
+      this.positions = new FeedPosition[entries.size()];
+      this.encoded = new byte[FORMATS.length][];
+      this.offsets = new int[FORMATS.length][entries.size() + 1];
+
+      for (int i = 0; i < entries.size(); i++) {
+        positions[i] = entries.get(i).position;
+      }
+      for (int format = 0; format < FORMATS.length; format++) {
+        int length = 0;
+        for (int i = 0; i < entries.size(); i++) {
+          offsets[format][i] = length;
+          length += entries.get(i).encodings[format].length;
+        }
+        offsets[format][entries.size()] = length;
+
+        encoded[format] = new byte[length];
+        for (int i = 0; i < entries.size(); i++) {
+          byte[] encoding = entries.get(i).encodings[format];
+          System.arraycopy(encoding, 0, encoded[format], offsets[format][i], encoding.length);
+        }
+      }
+    }
+
+    /**
+     * Reads a stored snapshot.
+     *
+     * @param snapshotEntity The CommentFeedSnapshot kind Entity.
+     * @return The snapshot, or null if it lacks the encoding of one of the formats (because it was
+     *     stored before the format was added) and must be rebuilt.
+     */
+    @SuppressWarnings("unchecked")
+    private static Contents fromEntity(Entity snapshotEntity) {
+      // Empty lists are stored as null.
+      List<Long> timestamps = (List<Long>) snapshotEntity.getProperty("timestamps");
+      List<Long> ids = (List<Long>) snapshotEntity.getProperty("ids");
+      int size = timestamps == null ? 0 : timestamps.size();
+      FeedPosition[] positions = new FeedPosition[size];
+      for (int i = 0; i < size; i++) {
+        positions[i] = new FeedPosition(timestamps.get(i), ids.get(i));
+      }
+
+      byte[][] encoded = new byte[FORMATS.length][];
+      int[][] offsets = new int[FORMATS.length][size + 1];
+      for (CommentPageFormat format : FORMATS) {
+        String name = format.name().toLowerCase();
+        Blob comments = (Blob) snapshotEntity.getProperty(name + "Comments");
+        if (comments == null) {
+          return null;
+        }
+        encoded[format.ordinal()] = comments.getBytes();
+
+        List<Long> storedOffsets = (List<Long>) snapshotEntity.getProperty(name + "Offsets");
+        for (int i = 0; i < size; i++) {
+          offsets[format.ordinal()][i] = storedOffsets.get(i).intValue();
+        }
+        offsets[format.ordinal()][size] = encoded[format.ordinal()].length;
+      }
+
+      return new Contents(
+          (Long) snapshotEntity.getProperty("revision"),
+          (Boolean) snapshotEntity.getProperty("complete"),
+          positions,
+          encoded,
+          offsets);
+    }
+
+    private Entity toEntity() {
+      List<Long> timestamps = new ArrayList<>(positions.length);
+      List<Long> ids = new ArrayList<>(positions.length);
+      for (FeedPosition position : positions) {
+        timestamps.add(position.getTimestamp());
+        ids.add(position.getId());
+      }
+
+      Entity snapshotEntity = new Entity(SNAPSHOT_KEY);
+      snapshotEntity.setUnindexedProperty("revision", revision);
+      snapshotEntity.setUnindexedProperty("complete", complete);
+      snapshotEntity.setUnindexedProperty("timestamps", timestamps);
+      snapshotEntity.setUnindexedProperty("ids", ids);
+      for (CommentPageFormat format : FORMATS) {
+        List<Long> storedOffsets = new ArrayList<>(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+          storedOffsets.add((long) offsets[format.ordinal()][i]);
+        }
+        String name = format.name().toLowerCase();
+        snapshotEntity.setUnindexedProperty(name + "Comments", new Blob(encoded[format.ordinal()]));
+        snapshotEntity.setUnindexedProperty(name + "Offsets", storedOffsets);
+      }
+      return snapshotEntity;
+    }
+
+    private List<Entry> getEntries() {
+      List<Entry> entries = new ArrayList<>(positions.length);
+      for (int i = 0; i < positions.length; i++) {
+        byte[][] encodings = new byte[FORMATS.length][];
+        for (int format = 0; format < FORMATS.length; format++) {
+          encodings[format] =
+              Arrays.copyOfRange(encoded[format], offsets[format][i], offsets[format][i + 1]);
+        }
+        entries.add(new Entry(positions[i], encodings));
+      }
+      return entries;
+    }
+
+    /** Returns true if the snapshot holds every comment of the thread. */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    /** Returns the number of comments in the snapshot. */
+    public int size() {
+      return positions.length;
+    }
+
+    /**
+     * Returns the index of the first comment that comes after a position.
+     *
+     * @param position The position of the last comment of the previous page.
+     * @return The index of the first comment of the page that follows {@code position}, which is
+     *     {@link #size()} if every comment of the snapshot comes before it.
+     */
+    public int indexAfter(FeedPosition position) {
+      int index = 0;
+      while (index < positions.length && !position.isBefore(positions[index])) {
+        index++;
+      }
+      return index;
+    }
+
+    /** Returns the feed position of the comment at an index. */
+    public FeedPosition getPosition(int index) {
+      return positions[index];
+    }
+
+    /**
+     * Writes a page made of a range of comments.
+     *
+     * @param out The stream the page is written to.
+     * @param format The format of the page.
+     * @param from The index of the first comment of the page.
+     * @param to The index after the last comment of the page.
+     * @param nextCursor The continuation token of the following page (null if there is none).
+     * @throws IOException - If an output error occurs when writing to {@code out}.
+     */
+    public void writePage(
+        OutputStream out, CommentPageFormat format, int from, int to, String nextCursor)
+        throws IOException {
+      byte[] formatEncoded = encoded[format.ordinal()];
+      int[] formatOffsets = offsets[format.ordinal()];
+      format.writePrefix(out);
+      for (int i = from; i < to; i++) {
+        if (i > from) {
+          format.writeSeparator(out);
+        }
+        out.write(formatEncoded, formatOffsets[i], formatOffsets[i + 1] - formatOffsets[i]);
+      }
+      format.writeSuffix(out, nextCursor);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.comments;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.protobuf.CodedOutputStream;
+import com.google.sps.data.Comment;
+import com.google.sps.data.Landmark;
+import com.google.sps.json.JsonAdapters;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire formats of the comment feed pages returned by /comment-data. A page is written as a prefix,
+ * the encoded comments with a separator between them, and a suffix that holds the continuation
+ * token. Comments are encoded independently of each other, so the feed snapshot can keep every
+ * comment pre-encoded and pages can be assembled by copying bytes.
+ */
+public enum CommentPageFormat {
+
+  /** {@code {"comments": [...], "nextCursor": "..."}}, the format used by the web front end. */
+  JSON("application/json;charset=UTF-8") {
+    private final byte[] prefix = "{\"comments\":[".getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public byte[] encodeComment(Comment comment) {
+      return JsonAdapters.GSON.toJson(comment, Comment.class).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writePrefix(OutputStream out) throws IOException {
+      out.write(prefix);
+    }
+
+    @Override
+    public void writeSeparator(OutputStream out) throws IOException {
+      out.write(',');
+    }
+
+    @Override
+    public void writeSuffix(OutputStream out, String nextCursor) throws IOException {
+      String nextCursorJson = nextCursor == null ? "null" : JsonAdapters.GSON.toJson(nextCursor);
+      String suffix = "],\"nextCursor\":" + nextCursorJson + "}\n";
+      out.write(suffix.getBytes(StandardCharsets.UTF_8));
+    }
+  },
+
+  /**
+   * Protocol Buffers encoding of the following messages, for clients that send {@code Accept:
+   * application/x-protobuf}:
+   *
+   * <pre>
+   * message Landmark { string name = 1; float latitude = 2; float longitude = 3; }
+   * message Comment {
+   *   string text = 1;
+   *   repeated string blob_keys = 2;
+   *   repeated Landmark landmarks = 3;
+   * }
+   * message CommentPage { repeated Comment comments = 1; string next_cursor = 2; }
+   * </pre>
+   *
+   * <p>Each encoded comment is a complete 'comments' field of CommentPage, so a page is the
+   * concatenation of its comments followed by the 'next_cursor' field.
+   */
+  PROTOBUF("application/x-protobuf") {
+    @Override
+    public byte[] encodeComment(Comment comment) {
+      int commentSize = computeCommentSize(comment);
+      byte[] field =
+          new byte
+              [CodedOutputStream.computeTagSize(1)
+                  + CodedOutputStream.computeUInt32SizeNoTag(commentSize)
+                  + commentSize];
+      CodedOutputStream out = CodedOutputStream.newInstance(field);
+      try {
+        out.writeTag(1, WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(commentSize);
+        writeComment(out, comment);
+        out.checkNoSpaceLeft();
+      } catch (IOException e) {
+        throw new IllegalStateException("Comment size was computed incorrectly", e);
+      }
+      return field;
+    }
+
+    @Override
+    public void writePrefix(OutputStream out) {}
+
+    @Override
+    public void writeSeparator(OutputStream out) {}
+
+    @Override
+    public void writeSuffix(OutputStream out, String nextCursor) throws IOException {
+      if (nextCursor != null) {
+        CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+        codedOut.writeString(2, nextCursor);
+        codedOut.flush();
+      }
+    }
+  };
+
+  /** The wire type of strings and embedded messages. */
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+  private final String contentType;
+
+  CommentPageFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * Picks the format requested by a client.
+   *
+   * @param acceptHeader The value of the Accept request header (null if there is none).
+   * @return PROTOBUF if the client accepts application/x-protobuf (or application/protobuf), and
+   *     JSON otherwise.
+   */
+  public static CommentPageFormat negotiate(String acceptHeader) {
+    if (acceptHeader != null) {
+      for (String mediaRange : acceptHeader.split(",")) {
+        String mediaType = mediaRange.split(";")[0].trim();
+        if (mediaType.equals("application/x-protobuf")
+            || mediaType.equals("application/protobuf")) {
+          return PROTOBUF;
+        }
+      }
+    }
+    return JSON;
+  }
+
+  /** Returns the Content-Type of a page in this format. */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * Encodes a single comment of a page.
+   *
+   * @param comment The comment to encode.
+   * @return The bytes written for the comment between the prefix and suffix of a page.
+   */
+  public abstract byte[] encodeComment(Comment comment);
+
+  /** Writes the bytes that come before the first comment of a page. */
+  public abstract void writePrefix(OutputStream out) throws IOException;
+
+  /** Writes the bytes that separate two consecutive comments of a page. */
+  public abstract void writeSeparator(OutputStream out) throws IOException;
+
+  /**
+   * Writes the bytes that come after the last comment of a page.
+   *
+   * @param out The stream the page is written to.
+   * @param nextCursor The continuation token of the following page (null if there is none).
+   */
+  public abstract void writeSuffix(OutputStream out, String nextCursor) throws IOException;
+
+  private static int computeCommentSize(Comment comment) {
+    int size = 0;
+    if (comment.getText() != null) {
+      size += CodedOutputStream.computeStringSize(1, comment.getText());
+    }
+    for (BlobKey blobKey : comment.getBlobKeys()) {
+      size += CodedOutputStream.computeStringSize(2, blobKey.getKeyString());
+    }
+    for (Landmark landmark : comment.getLandmarks()) {
+      int landmarkSize = computeLandmarkSize(landmark);
+      size +=
+          CodedOutputStream.computeTagSize(3)
+              + CodedOutputStream.computeUInt32SizeNoTag(landmarkSize)
+              + landmarkSize;
+    }
+    return size;
+  }
+
+  private static int computeLandmarkSize(Landmark landmark) {
+    return CodedOutputStream.computeStringSize(1, landmark.getName())
+        + CodedOutputStream.computeFloatSize(2, landmark.getLatitude())
+        + CodedOutputStream.computeFloatSize(3, landmark.getLongitude());
+  }
+
+  private static void writeComment(CodedOutputStream out, Comment comment) throws IOException {
+    if (comment.getText() != null) {
+      out.writeString(1, comment.getText());
+    }
+    for (BlobKey blobKey : comment.getBlobKeys()) {
+      out.writeString(2, blobKey.getKeyString());
+    }
+    for (Landmark landmark : comment.getLandmarks()) {
+      out.writeTag(3, WIRETYPE_LENGTH_DELIMITED);
+      out.writeUInt32NoTag(computeLandmarkSize(landmark));
+      out.writeString(1, landmark.getName());
+      out.writeFloat(2, landmark.getLatitude());
+      out.writeFloat(3, landmark.getLongitude());
+    }
+  }
+}
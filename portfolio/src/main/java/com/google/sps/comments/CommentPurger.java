@@ -0,0 +1,220 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.comments;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.sps.images.ImageVariantStore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes every Comment kind Entity along with the images uploaded with the comments and their
+ * stored variants.
+ *
+ * <p>Comments are read with a projection query on their 'blobKey' property, so only the index is
+ * scanned and no comment entity is fetched. Every Comment has an indexed 'blobKey' property (null
+ * when no image was uploaded), so the projection returns one result per image of each comment, or
+ * a single result for a comment without images. Results of the same comment that fall in one
+ * batch are merged, and a comment whose results span two batches is deleted twice. The keys are
+ * deleted in batches of {@code batchSize} through the asynchronous Datastore service, with up to
+ * {@code maxInFlightBatches} batches deleted at the same time. Once the comments of a batch are
+ * deleted, their blobs are deleted from the Blobstore.
+ *
+ * <p>A purge stops at a deadline and returns a cursor that a later purge resumes from, so that a
+ * long thread is deleted over several requests that each stay within the request time limit.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentPurger {
+
+  private final AsyncDatastoreService datastore;
+
+  private final BlobstoreService blobstoreService;
+
+  private final int batchSize;
+
+  private final int maxInFlightBatches;
+
+  private final AtomicLong numCommentsDeleted = new AtomicLong();
+
+  private final AtomicLong numBlobsDeleted = new AtomicLong();
+
+  private final AtomicLong numBatches = new AtomicLong();
+
+  /**
+   * @param datastore The asynchronous Datastore service used to query and delete comments.
+   * @param blobstoreService The Blobstore holding the uploaded images.
+   * @param batchSize The number of comments deleted by each Datastore call.
+   * @param maxInFlightBatches The number of batches that may be deleted at the same time.
+   */
+  public CommentPurger(
+      AsyncDatastoreService datastore,
+      BlobstoreService blobstoreService,
+      int batchSize,
+      int maxInFlightBatches) {
+    this.datastore = datastore;
+    this.blobstoreService = blobstoreService;
+    this.batchSize = batchSize;
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+
+  /**
+   * Deletes comments until every comment is deleted or the deadline passes.
+   *
+   * @param startCursor The cursor returned by a previous purge, or null to start a new purge.
+   * @param deadlineMillis The time in milliseconds after which no new batch is started.
+   * @return The number of comments and blobs deleted and the cursor to resume from.
+   * @throws DatastoreFailureException - If a batch could not be deleted.
+   */
+  public Progress purge(Cursor startCursor, long deadlineMillis) {
+    Query query =
+        new Query("Comment").addProjection(new PropertyProjection("blobKey", BlobKey.class));
+    FetchOptions fetchOptions =
+        FetchOptions.Builder.withChunkSize(batchSize).prefetchSize(batchSize);
+    if (startCursor != null) {
+      fetchOptions.startCursor(startCursor);
+    }
+    QueryResultIterator<Entity> comments =
+        datastore.prepare(query).asQueryResultIterator(fetchOptions);
+
+    Deque<PendingBatch> inFlightBatches = new ArrayDeque<>();
+    Progress progress = new Progress();
+    boolean deadlinePassed = false;
+    while (comments.hasNext() && !deadlinePassed) {
+      PendingBatch batch = new PendingBatch();
+      while (comments.hasNext() && batch.commentKeys.size() < batchSize) {
+        Entity comment = comments.next();
+        batch.commentKeys.add(comment.getKey());
+        BlobKey blobKey = (BlobKey) comment.getProperty("blobKey");
+        if (blobKey != null) {
+          batch.blobKeys.add(blobKey);
+        }
+      }
+
+      if (inFlightBatches.size() == maxInFlightBatches) {
+        complete(inFlightBatches.removeFirst(), progress);
+      }
+      inFlightBatches.addLast(start(batch));
+      deadlinePassed = System.currentTimeMillis() >= deadlineMillis;
+    }
+
+    while (!inFlightBatches.isEmpty()) {
+      complete(inFlightBatches.removeFirst(), progress);
+    }
+    if (comments.hasNext()) {
+      progress.nextCursor = comments.getCursor();
+    }
+    return progress;
+  }
+
+  /** Returns the number of comments deleted by this instance. */
+  public long getNumCommentsDeleted() {
+    return numCommentsDeleted.get();
+  }
+
+  /** Returns the number of blobs deleted by this instance. */
+  public long getNumBlobsDeleted() {
+    return numBlobsDeleted.get();
+  }
+
+  /** Returns the number of batches deleted by this instance. */
+  public long getNumBatches() {
+    return numBatches.get();
+  }
+
+  /** Starts the asynchronous deletion of the comments of a batch and of their image variants. */
+  private PendingBatch start(PendingBatch batch) {
+    List<Key> variantKeys = new ArrayList<>();
+    for (BlobKey blobKey : batch.blobKeys) {
+      variantKeys.addAll(ImageVariantStore.getVariantKeys(blobKey));
+    }
+    batch.commentsDeleted = datastore.delete(batch.commentKeys);
+    batch.variantsDeleted = datastore.delete(variantKeys);
+    return batch;
+  }
+
+  /** Waits for the deletion of a batch, then deletes the blobs of its comments. */
+  private void complete(PendingBatch batch, Progress progress) {
+    await(batch.commentsDeleted);
+    await(batch.variantsDeleted);
+    if (!batch.blobKeys.isEmpty()) {
+      blobstoreService.delete(batch.blobKeys.toArray(new BlobKey[0]));
+    }
+
+    progress.numCommentsDeleted += batch.commentKeys.size();
+    progress.numBlobsDeleted += batch.blobKeys.size();
+    numCommentsDeleted.addAndGet(batch.commentKeys.size());
+    numBlobsDeleted.addAndGet(batch.blobKeys.size());
+    numBatches.incrementAndGet();
+  }
+
+  private static void await(Future<Void> deletion) {
+    try {
+      deletion.get();
+    } catch (ExecutionException e) {
+      throw new DatastoreFailureException("Unable to delete a batch of comments.", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatastoreFailureException("Interrupted while deleting a batch of comments.", e);
+    }
+  }
+
+  /** A batch of comments along with the pending deletions of its entities. */
+  private static class PendingBatch {
+    private final Set<Key> commentKeys = new LinkedHashSet<>();
+    private final List<BlobKey> blobKeys = new ArrayList<>();
+    private Future<Void> commentsDeleted;
+    private Future<Void> variantsDeleted;
+  }
+
+  /** The outcome of one call to {@link #purge}. */
+  public static class Progress {
+    private long numCommentsDeleted = 0;
+    private long numBlobsDeleted = 0;
+    private Cursor nextCursor = null;
+
+    /** Returns the number of comments deleted by the purge. */
+    public long getNumCommentsDeleted() {
+      return numCommentsDeleted;
+    }
+
+    /** Returns the number of blobs deleted by the purge. */
+    public long getNumBlobsDeleted() {
+      return numBlobsDeleted;
+    }
+
+    /** Returns the cursor to resume the purge from, or null if every comment was deleted. */
+    public Cursor getNextCursor() {
+      return nextCursor;
+    }
+  }
+}
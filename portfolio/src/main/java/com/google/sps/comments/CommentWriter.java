@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.comments;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.sps.cache.CommentFeedCache;
+import com.google.sps.cache.CommentThreadVersion;
+import com.google.sps.concurrent.MicroBatcher;
+import com.google.sps.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Write-behind buffer for new Comment kind Entities. Comments submitted by concurrent requests
+ * within {@code maxDelayMillis} of each other are stored with a single multi-entity put through
+ * the asynchronous Datastore service, and at most {@code maxInFlightPuts} puts are outstanding at
+ * any time, so a burst of submissions cannot flood the Datastore with RPCs.
+ *
+ * <p>{@link #write} returns only once the put of its batch has been acknowledged by the Datastore,
+ * so a comment is durable before its request is answered. The {@link CommentThreadVersion} stamp,
+ * the {@link CommentFeedSnapshot} and the {@link CommentFeedCache} are updated once per batch
+ * rather than once per comment, which also keeps concurrent submissions from contending on the
+ * stamp and snapshot entities.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentWriter {
+
+  private final AsyncDatastoreService datastore;
+
+  private final CommentThreadVersion commentThreadVersion;
+
+  private final CommentFeedCache commentFeedCache;
+
+  private final CommentFeedSnapshot commentFeedSnapshot;
+
+  private final Semaphore inFlightPuts;
+
+  private final MicroBatcher<Entity, Key> batcher;
+
+  private final LatencyHistogram putLatency;
+
+  /**
+   * @param datastore The asynchronous Datastore service the comments are put with.
+   * @param commentThreadVersion The version stamp updated once a batch is stored.
+   * @param commentFeedCache The cache invalidated once a batch is stored.
+   * @param commentFeedSnapshot The feed snapshot the stored comments are added to.
+   * @param maxBatchSize The maximum number of comments stored by a single put.
+   * @param maxDelayMillis The longest time a comment waits for other comments to join its batch.
+   * @param maxInFlightPuts The maximum number of puts outstanding at the same time.
+   * @param putLatency The histogram the latency of every Datastore put is recorded in.
+   */
+  public CommentWriter(
+      AsyncDatastoreService datastore,
+      CommentThreadVersion commentThreadVersion,
+      CommentFeedCache commentFeedCache,
+      CommentFeedSnapshot commentFeedSnapshot,
+      int maxBatchSize,
+      long maxDelayMillis,
+      int maxInFlightPuts,
+      LatencyHistogram putLatency) {
+    this.datastore = datastore;
+    this.commentThreadVersion = commentThreadVersion;
+    this.commentFeedCache = commentFeedCache;
+    this.commentFeedSnapshot = commentFeedSnapshot;
+    this.inFlightPuts = new Semaphore(maxInFlightPuts);
+    this.batcher = new MicroBatcher<>(this::putBatch, maxBatchSize, maxDelayMillis);
+    this.putLatency = putLatency;
+  }
+
+  /**
+   * Stores a new comment and waits until the Datastore has acknowledged it.
+   *
+   * @param commentEntity The Comment kind Entity to store.
+   * @return The key assigned to the comment.
+   * @throws IOException - If the batch holding the comment could not be stored.
+   */
+  public Key write(Entity commentEntity) throws IOException {
+    return batcher.process(commentEntity);
+  }
+
+  /** Returns the number of puts made so far. */
+  public long getNumBatches() {
+    return batcher.getNumBatches();
+  }
+
+  /** Returns the number of comments stored so far, over all puts. */
+  public long getNumComments() {
+    return batcher.getNumItems();
+  }
+
+  private List<Key> putBatch(List<Entity> commentEntities) throws IOException {
+    List<Key> commentKeys;
+    try {
+      inFlightPuts.acquire();
+      try {
+        long putStart = System.nanoTime();
+        commentKeys = datastore.put(commentEntities).get();
+        putLatency.record(System.nanoTime() - putStart);
+      } finally {
+        inFlightPuts.release();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while storing comments");
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to store comments", e.getCause());
+    }
+
+    long newestTimestamp = 0;
+    for (Entity commentEntity : commentEntities) {
+      newestTimestamp = Math.max(newestTimestamp, (Long) commentEntity.getProperty("timestamp"));
+    }
+    // The comments are already stored, so failing to update the stamp must not fail the batch.
+    try {
+      CommentThreadVersion.Stamp stamp =
+          commentThreadVersion.recordNewComments(commentEntities.size(), newestTimestamp);
+      commentFeedSnapshot.addComments(commentEntities, stamp.getRevision());
+    } catch (RuntimeException e) {
+      System.err.println("Error: Unable to update the comment thread version: " + e);
+      commentFeedSnapshot.clear();
+    }
+    commentFeedCache.invalidate();
+    return commentKeys;
+  }
+}
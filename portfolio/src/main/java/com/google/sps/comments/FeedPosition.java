@@ -0,0 +1,118 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.comments;
+
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * Position of a comment in the comment feed, which is ordered by timestamp (newest first) and then
+ * by key id. A feed page continues after the position of the last comment of the previous page,
+ * which is passed between pages as a "k:timestamp:id" continuation token.
+ */
+public final class FeedPosition implements Comparable<FeedPosition> {
+
+  private static final String TOKEN_PREFIX = "k:";
+
+  private final long timestamp;
+
+  private final long id;
+
+  /**
+   * @param timestamp The timestamp of the comment.
+   * @param id The id of the key of the comment.
+   */
+  public FeedPosition(long timestamp, long id) {
+    this.timestamp = timestamp;
+    this.id = id;
+  }
+
+  /**
+   * Returns the position of a comment.
+   *
+   * @param commentEntity A stored Comment kind Entity.
+   */
+  public static FeedPosition of(Entity commentEntity) {
+    return new FeedPosition(
+        (Long) commentEntity.getProperty("timestamp"), commentEntity.getKey().getId());
+  }
+
+  /**
+   * Parses a continuation token.
+   *
+   * @param token The token, as returned by {@link #toToken()}.
+   * @return The position, or null if {@code token} is not a continuation token.
+   */
+  public static FeedPosition parseToken(String token) {
+    if (token == null || !token.startsWith(TOKEN_PREFIX)) {
+      return null;
+    }
+
+    String[] parts = token.substring(TOKEN_PREFIX.length()).split(":");
+    if (parts.length != 2) {
+      return null;
+    }
+    try {
+      return new FeedPosition(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Returns the continuation token for the page that follows this position. */
+  public String toToken() {
+    return TOKEN_PREFIX + timestamp + ":" + id;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Checks whether this position comes before another one in the feed.
+   *
+   * @param other The other position.
+   * @return True if this comment is newer than {@code other}, or is as old and has a smaller id.
+   */
+  public boolean isBefore(FeedPosition other) {
+    return compareTo(other) < 0;
+  }
+
+  /** Orders positions in feed order: newest first, then by increasing id. */
+  @Override
+  public int compareTo(FeedPosition other) {
+    if (timestamp != other.timestamp) {
+      return Long.compare(other.timestamp, timestamp);
+    }
+    return Long.compare(id, other.id);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof FeedPosition)) {
+      return false;
+    }
+    FeedPosition otherPosition = (FeedPosition) other;
+    return timestamp == otherPosition.timestamp && id == otherPosition.id;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(timestamp) * 31 + Long.hashCode(id);
+  }
+}
@@ -0,0 +1,186 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces items submitted concurrently by different threads into batches that are handled with
+ * a single call, then hands each caller the result for its own item.
+ *
+ * <p>No background thread is used: the first caller to arrive after a batch is closed becomes the
+ * leader of the next batch. The leader waits until the batch holds {@code maxBatchSize} items or
+ * {@code maxDelayMillis} have passed, then runs the batch handler on its own thread and completes
+ * the futures of the other callers. This keeps every call on a request thread, which matters on
+ * App Engine where only request threads can use the App Engine APIs.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @param <I> The type of the items that are batched.
+ * @param <O> The type of the result produced for each item.
+ */
+public class MicroBatcher<I, O> {
+
+  /** Handles a whole batch of items with a single call. */
+  public interface BatchHandler<I, O> {
+
+    /**
+     * @param items The items of the batch, in the order they were submitted.
+     * @return One result per item, in the same order as {@code items}.
+     * @throws IOException - If the batch could not be handled. Every caller in the batch receives
+     *     the exception.
+     */
+    List<O> handle(List<I> items) throws IOException;
+  }
+
+  private final BatchHandler<I, O> handler;
+
+  private final int maxBatchSize;
+
+  private final long maxDelayNanos;
+
+  private final Object lock = new Object();
+
+  /** The batch that new items are added to (null if none is open). Guarded by {@code lock}. */
+  private Batch<I, O> openBatch;
+
+  private long numBatches = 0;
+  private long numItems = 0;
+
+  /**
+   * @param handler The handler called once per batch.
+   * @param maxBatchSize The number of items that closes a batch immediately.
+   * @param maxDelayMillis The longest time the first item of a batch waits for other items.
+   */
+  public MicroBatcher(BatchHandler<I, O> handler, int maxBatchSize, long maxDelayMillis) {
+    this.handler = handler;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+  }
+
+  /**
+   * Adds an item to the open batch and waits for its result.
+   *
+   * @param item The item to process.
+   * @return The result produced by the batch handler for {@code item}.
+   * @throws IOException - If the batch handler failed, or if the calling thread was interrupted
+   *     while waiting for the result.
+   */
+  public O process(I item) throws IOException {
+    Batch<I, O> batch;
+    CompletableFuture<O> result;
+    boolean isLeader;
+    synchronized (lock) {
+      isLeader = openBatch == null;
+      if (isLeader) {
+        openBatch = new Batch<>();
+      }
+      batch = openBatch;
+      result = batch.add(item);
+      if (batch.items.size() >= maxBatchSize) {
+        openBatch = null;
+        lock.notifyAll();
+      }
+    }
+
+    if (isLeader) {
+      awaitBatchClosed(batch);
+      batch.run(handler);
+    }
+
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for batch result", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Batch handler failed", e.getCause());
+    }
+  }
+
+  /** Returns the number of batches handled so far. */
+  public synchronized long getNumBatches() {
+    return numBatches;
+  }
+
+  /** Returns the number of items handled so far, over all batches. */
+  public synchronized long getNumItems() {
+    return numItems;
+  }
+
+  /**
+   * Blocks the leader of a batch until the batch is full or its delay has passed, then makes sure
+   * no further items are added to it.
+   */
+  private void awaitBatchClosed(Batch<I, O> batch) {
+    long deadline = System.nanoTime() + maxDelayNanos;
+    synchronized (lock) {
+      try {
+        long remainingNanos;
+        while (openBatch == batch && (remainingNanos = deadline - System.nanoTime()) > 0) {
+          TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+        }
+      } catch (InterruptedException e) {
+        // Handle the batch right away; the other callers are still waiting on it.
+        Thread.currentThread().interrupt();
+      }
+      if (openBatch == batch) {
+        openBatch = null;
+      }
+    }
+
+    synchronized (this) {
+      numBatches++;
+      numItems += batch.items.size();
+    }
+  }
+
+  /** Items that are handled together, with the future each caller is waiting on. */
+  private static class Batch<I, O> {
+    private final List<I> items = new ArrayList<>();
+    private final List<CompletableFuture<O>> results = new ArrayList<>();
+
+    private CompletableFuture<O> add(I item) {
+      CompletableFuture<O> result = new CompletableFuture<>();
+      items.add(item);
+      results.add(result);
+      return result;
+    }
+
+    private void run(BatchHandler<I, O> handler) {
+      try {
+        List<O> outputs = handler.handle(items);
+        if (outputs.size() != items.size()) {
+          throw new IOException(
+              "Batch handler returned " + outputs.size() + " results for " + items.size());
+        }
+        for (int i = 0; i < outputs.size(); i++) {
+          results.get(i).complete(outputs.get(i));
+        }
+      } catch (IOException | RuntimeException e) {
+        for (CompletableFuture<O> result : results) {
+          result.completeExceptionally(e);
+        }
+      }
+    }
+  }
+}
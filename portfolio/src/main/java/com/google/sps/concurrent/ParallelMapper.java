@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Applies an I/O bound function to every item of a list in parallel, so that the time taken is
+ * that of the slowest item rather than the sum over all items.
+ *
+ * <p>Each call runs the first item on the calling thread and the other items on a short-lived
+ * pool of at most {@code maxParallelism - 1} threads, so that at most {@code maxParallelism} items
+ * are processed at the same time. The threads are created by the factory returned by {@code
+ * threadFactorySupplier} for that call, which on App Engine is the factory of the current request
+ * (only request threads can use the App Engine APIs).
+ *
+ * <p>This class is thread-safe.
+ */
+public class ParallelMapper {
+
+  /** The function applied to each item. */
+  public interface ItemFunction<I, O> {
+
+    /**
+     * @param item The item to process.
+     * @return The result for the item.
+     * @throws IOException - If the item could not be processed.
+     */
+    O apply(I item) throws IOException;
+  }
+
+  private final Supplier<ThreadFactory> threadFactorySupplier;
+
+  private final int maxParallelism;
+
+  /**
+   * @param threadFactorySupplier Supplies the factory for the threads of each call.
+   * @param maxParallelism The maximum number of items of one call processed at the same time.
+   */
+  public ParallelMapper(Supplier<ThreadFactory> threadFactorySupplier, int maxParallelism) {
+    this.threadFactorySupplier = threadFactorySupplier;
+    this.maxParallelism = maxParallelism;
+  }
+
+  /**
+   * Applies a function to every item and waits for all of the results.
+   *
+   * @param items The items to process.
+   * @param function The function applied to each item.
+   * @return One result per item, in the same order as {@code items}.
+   * @throws IOException - If the function failed for any item. The first failure in item order is
+   *     thrown once every item has finished.
+   */
+  public <I, O> List<O> map(List<I> items, ItemFunction<I, O> function) throws IOException {
+    List<O> results = new ArrayList<>(items.size());
+    if (items.size() <= 1 || maxParallelism <= 1) {
+      for (I item : items) {
+        results.add(function.apply(item));
+      }
+      return results;
+    }
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(maxParallelism, items.size()) - 1, threadFactorySupplier.get());
+    try {
+      List<Future<O>> futures = new ArrayList<>();
+      for (I item : items.subList(1, items.size())) {
+        futures.add(executor.submit(() -> function.apply(item)));
+      }
+
+      IOException failure = null;
+      try {
+        results.add(function.apply(items.get(0)));
+      } catch (IOException e) {
+        failure = e;
+      }
+      for (Future<O> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure =
+                e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException(e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing items in parallel", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
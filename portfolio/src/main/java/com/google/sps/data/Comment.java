@@ -15,6 +15,7 @@
 package com.google.sps.data;
 
 import com.google.appengine.api.blobstore.BlobKey;
+import java.util.List;
 
 /**
  * Class representing a comment created on server-dev.html.
@@ -27,22 +28,34 @@ public class Comment {
   private final String text;
 
   /**
-   * The keys corresponding to the image stored in the Blobstore for the comment (null if no image
-   * for a comment).
+   * The keys corresponding to the images stored in the Blobstore for the comment, in upload order
+   * (empty if no image for a comment).
    */
-  private final BlobKey blobKey;
+  private final List<BlobKey> blobKeys;
 
-  /** A landmark instance corresponding the the image given by blobKey. */
-  private final Landmark landmark;
+  /** The landmark instances detected in the images given by blobKeys (empty if none). */
+  private final List<Landmark> landmarks;
 
   /**
    * @param text The string of text for an individual comment.
-   * @param blobKey The associated image blob key for an individual comment.
-   * @param landmark The associated landmark instance for an individual comment.
+   * @param blobKeys The associated image blob keys for an individual comment.
+   * @param landmarks The associated landmark instances for an individual comment.
    */
-  public Comment(String text, BlobKey blobKey, Landmark landmark) {
+  public Comment(String text, List<BlobKey> blobKeys, List<Landmark> landmarks) {
     this.text = text;
-    this.blobKey = blobKey;
-    this.landmark = landmark;
+    this.blobKeys = blobKeys;
+    this.landmarks = landmarks;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public List<BlobKey> getBlobKeys() {
+    return blobKeys;
+  }
+
+  public List<Landmark> getLandmarks() {
+    return landmarks;
   }
 }
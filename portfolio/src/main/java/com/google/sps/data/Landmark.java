@@ -38,4 +38,16 @@ public class Landmark {
     this.latitude = latitude;
     this.longitude = longitude;
   }
+
+  public String getName() {
+    return name;
+  }
+
+  public float getLatitude() {
+    return latitude;
+  }
+
+  public float getLongitude() {
+    return longitude;
+  }
 }
@@ -0,0 +1,45 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * Class representing the number of comments with at least one image that shows a landmark, as
+ * returned by /landmark-stats.
+ *
+ * <p>Note: The private variables in this class are converted into JSON.
+ */
+public class LandmarkCount {
+
+  private final String name;
+
+  private final long count;
+
+  /**
+   * @param name Landmark name.
+   * @param count Number of comments with the landmark.
+   */
+  public LandmarkCount(String name, long count) {
+    this.name = name;
+    this.count = count;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getCount() {
+    return count;
+  }
+}
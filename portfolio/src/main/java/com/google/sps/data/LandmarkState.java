@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+/**
+ * The progress of landmark detection for the images of a comment, each of which may show its own
+ * landmark. The name of the state is stored in the 'landmarkState' property of Comment kind
+ * Entities that have at least one image.
+ */
+public enum LandmarkState {
+  /** The comment was stored and landmark detection has not finished for all of its images yet. */
+  PENDING,
+
+  /**
+   * Landmark detection finished and at least one image had a landmark. The landmarks are stored
+   * in the comment, one per image that shows a landmark.
+   */
+  DETECTED,
+
+  /** Landmark detection finished without finding a landmark in any of the images. */
+  NOT_FOUND,
+
+  /** Landmark detection gave up after repeated errors, so no landmark is stored. */
+  FAILED
+}
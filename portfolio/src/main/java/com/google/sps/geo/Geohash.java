@@ -0,0 +1,186 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.geo;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Geohash encoding of points, along with the cover of a bounding box by geohash cells.
+ *
+ * <p>A geohash interleaves the bits of the longitude and latitude of a point, most significant
+ * first, and writes them in base 32. Points that share a geohash prefix lie in the same cell, so
+ * the comments of a cell are found with a range query on an indexed geohash property.
+ */
+public final class Geohash {
+
+  /** The precision stored with comments, which gives cells of about 4.8 x 4.8 meters. */
+  public static final int MAX_PRECISION = 9;
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  private Geohash() {}
+
+  /**
+   * Encodes a point.
+   *
+   * @param latitude The latitude of the point, in degrees.
+   * @param longitude The longitude of the point, in degrees.
+   * @param precision The number of characters of the geohash.
+   * @return The geohash of the cell holding the point.
+   */
+  public static String encode(double latitude, double longitude, int precision) {
+    double minLat = -90;
+    double maxLat = 90;
+    double minLng = -180;
+    double maxLng = 180;
+    StringBuilder geohash = new StringBuilder(precision);
+    boolean isLongitudeBit = true;
+    int bits = 0;
+    int value = 0;
+    while (geohash.length() < precision) {
+      if (isLongitudeBit) {
+        double mid = (minLng + maxLng) / 2;
+        value = value << 1 | (longitude >= mid ? 1 : 0);
+        if (longitude >= mid) {
+          minLng = mid;
+        } else {
+          maxLng = mid;
+        }
+      } else {
+        double mid = (minLat + maxLat) / 2;
+        value = value << 1 | (latitude >= mid ? 1 : 0);
+        if (latitude >= mid) {
+          minLat = mid;
+        } else {
+          maxLat = mid;
+        }
+      }
+      isLongitudeBit = !isLongitudeBit;
+
+      if (++bits == 5) {
+        geohash.append(BASE32.charAt(value));
+        bits = 0;
+        value = 0;
+      }
+    }
+    return geohash.toString();
+  }
+
+  /**
+   * Decodes a geohash.
+   *
+   * @param geohash The geohash of a cell.
+   * @return The latitude and longitude of the center of the cell, in degrees.
+   * @throws IllegalArgumentException - If {@code geohash} holds a character outside of the geohash
+   *     alphabet.
+   */
+  public static double[] decode(String geohash) {
+    double minLat = -90;
+    double maxLat = 90;
+    double minLng = -180;
+    double maxLng = 180;
+    boolean isLongitudeBit = true;
+    for (int i = 0; i < geohash.length(); i++) {
+      int value = BASE32.indexOf(geohash.charAt(i));
+      if (value < 0) {
+        throw new IllegalArgumentException("Invalid geohash: " + geohash);
+      }
+      for (int bit = 4; bit >= 0; bit--) {
+        boolean isSet = (value >> bit & 1) == 1;
+        if (isLongitudeBit) {
+          double mid = (minLng + maxLng) / 2;
+          if (isSet) {
+            minLng = mid;
+          } else {
+            maxLng = mid;
+          }
+        } else {
+          double mid = (minLat + maxLat) / 2;
+          if (isSet) {
+            minLat = mid;
+          } else {
+            maxLat = mid;
+          }
+        }
+        isLongitudeBit = !isLongitudeBit;
+      }
+    }
+    return new double[] {(minLat + maxLat) / 2, (minLng + maxLng) / 2};
+  }
+
+  /**
+   * Returns the geohash cells that cover a bounding box, at the finest precision for which at most
+   * {@code maxCells} cells are needed.
+   *
+   * @param south The southern latitude of the box, in degrees.
+   * @param west The western longitude of the box, in degrees.
+   * @param north The northern latitude of the box, in degrees.
+   * @param east The eastern longitude of the box, in degrees (the box does not cross the
+   *     antimeridian, so {@code west <= east}).
+   * @param maxCells The maximum number of cells returned.
+   * @return The geohashes of the cells, all of the same length.
+   */
+  public static Set<String> cover(
+      double south, double west, double north, double east, int maxCells) {
+    int precision = 1;
+    while (precision < MAX_PRECISION
+        && countCells(south, west, north, east, precision + 1) <= maxCells) {
+      precision++;
+    }
+
+    double cellHeight = getCellHeight(precision);
+    double cellWidth = getCellWidth(precision);
+    Set<String> cells = new LinkedHashSet<>();
+    long lastRow = getRow(north, cellHeight);
+    long lastColumn = getColumn(east, cellWidth);
+    for (long row = getRow(south, cellHeight); row <= lastRow; row++) {
+      for (long column = getColumn(west, cellWidth); column <= lastColumn; column++) {
+        cells.add(
+            encode(
+                -90 + (row + 0.5) * cellHeight, -180 + (column + 0.5) * cellWidth, precision));
+      }
+    }
+    return cells;
+  }
+
+  private static long countCells(
+      double south, double west, double north, double east, int precision) {
+    double cellHeight = getCellHeight(precision);
+    double cellWidth = getCellWidth(precision);
+    return (getRow(north, cellHeight) - getRow(south, cellHeight) + 1)
+        * (getColumn(east, cellWidth) - getColumn(west, cellWidth) + 1);
+  }
+
+  private static long getRow(double latitude, double cellHeight) {
+    double clamped = Math.max(-90, Math.min(latitude, 90));
+    return Math.min((long) ((clamped + 90) / cellHeight), Math.round(180 / cellHeight) - 1);
+  }
+
+  private static long getColumn(double longitude, double cellWidth) {
+    double clamped = Math.max(-180, Math.min(longitude, 180));
+    return Math.min((long) ((clamped + 180) / cellWidth), Math.round(360 / cellWidth) - 1);
+  }
+
+  /** A geohash of n characters has floor(5n / 2) latitude bits. */
+  private static double getCellHeight(int precision) {
+    return 180 / Math.pow(2, 5 * precision / 2);
+  }
+
+  /** A geohash of n characters has ceil(5n / 2) longitude bits. */
+  private static double getCellWidth(int precision) {
+    return 360 / Math.pow(2, (5 * precision + 1) / 2);
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.geo;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process grid of the comments with a detected landmark, used to answer /comments-near without
+ * querying the Datastore while the set of located comments is small enough to hold in memory.
+ *
+ * <p>The grid is loaded with a single projection query on the indexed 'landmarkGeohash' property
+ * of the Comment kind, so only keys and geohashes are read. Each landmark of a comment is placed in
+ * the square cell of {@code cellDegrees} holding the center of its geohash, which is at most a few
+ * meters away from the landmark. A comment with several landmarks may be returned more than once,
+ * and callers filter the returned comments by their exact location.
+ *
+ * <p>If more than {@code maxPoints} comments have a landmark, the grid is not loaded and {@link
+ * #findWithin} returns null until {@code ttlMillis} have passed, so that callers fall back to
+ * geohash range queries. The grid is reloaded {@code ttlMillis} after it was loaded, which picks up
+ * landmarks detected on other App Engine instances.
+ *
+ * <p>This class is thread-safe.
+ */
+public class LandmarkGridIndex {
+
+  private final DatastoreService datastore;
+
+  private final double cellDegrees;
+
+  private final int maxPoints;
+
+  private final long ttlMillis;
+
+  /** The loaded grid, or null if it must be loaded or is too large. Guarded by {@code this}. */
+  private Grid grid;
+
+  /** The time the grid was loaded or found too large (0 if never). Guarded by {@code this}. */
+  private long loadedAt = 0;
+
+  /** Incremented every time the grid is cleared. Guarded by {@code this}. */
+  private long version = 0;
+
+  private long numLoads = 0;
+
+  /**
+   * @param datastore The Datastore holding the Comment kind Entities.
+   * @param cellDegrees The width and height of a grid cell, in degrees.
+   * @param maxPoints The maximum number of comments held in the grid.
+   * @param ttlMillis The number of milliseconds after which the grid is reloaded.
+   */
+  public LandmarkGridIndex(
+      DatastoreService datastore, double cellDegrees, int maxPoints, long ttlMillis) {
+    this.datastore = datastore;
+    this.cellDegrees = cellDegrees;
+    this.maxPoints = maxPoints;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Finds the comments whose landmark may lie within a bounding box.
+   *
+   * @param south The southern latitude of the box, in degrees.
+   * @param west The western longitude of the box, in degrees.
+   * @param north The northern latitude of the box, in degrees.
+   * @param east The eastern longitude of the box, in degrees ({@code west <= east}).
+   * @return The keys of the comments in the grid cells overlapping the box, or null if there are
+   *     too many located comments to hold in memory.
+   */
+  public List<Key> findWithin(double south, double west, double north, double east) {
+    Grid currentGrid = getGrid();
+    if (currentGrid == null) {
+      return null;
+    }
+
+    List<Key> keys = new ArrayList<>();
+    synchronized (this) {
+      for (long row = getRow(south); row <= getRow(north); row++) {
+        for (long column = getColumn(west); column <= getColumn(east); column++) {
+          List<Key> cell = currentGrid.cells.get(getCellId(row, column));
+          if (cell != null) {
+            keys.addAll(cell);
+          }
+        }
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Adds a comment whose landmark was just detected to the grid, if it is loaded.
+   *
+   * @param commentKey The key of the Comment kind Entity.
+   * @param geohash The geohash stored in the 'landmarkGeohash' property of the comment.
+   */
+  public synchronized void add(Key commentKey, String geohash) {
+    if (grid == null) {
+      return;
+    }
+    if (grid.size >= maxPoints) {
+      grid = null;
+      return;
+    }
+    grid.add(commentKey, geohash);
+  }
+
+  /** Drops the grid, so that it is loaded again. Called whenever comments are deleted. */
+  public synchronized void clear() {
+    version++;
+    grid = null;
+    loadedAt = 0;
+  }
+
+  /** Returns the number of times the grid was loaded from the Datastore. */
+  public synchronized long getNumLoads() {
+    return numLoads;
+  }
+
+  /**
+   * Returns the loaded grid, loading it outside of the lock if it is missing or expired. A grid
+   * loaded while the grid was cleared is used by the caller but is not kept.
+   */
+  private Grid getGrid() {
+    long loadedVersion;
+    synchronized (this) {
+      if (loadedAt != 0 && System.currentTimeMillis() - loadedAt <= ttlMillis) {
+        return grid;
+      }
+      loadedVersion = version;
+      numLoads++;
+    }
+
+    Query query =
+        new Query("Comment").addProjection(new PropertyProjection("landmarkGeohash", String.class));
+    List<Entity> results =
+        datastore.prepare(query).asList(FetchOptions.Builder.withLimit(maxPoints + 1));
+    Grid loadedGrid = null;
+    if (results.size() <= maxPoints) {
+      loadedGrid = new Grid();
+      for (Entity result : results) {
+        loadedGrid.add(result.getKey(), (String) result.getProperty("landmarkGeohash"));
+      }
+    }
+
+    synchronized (this) {
+      if (loadedVersion == version) {
+        grid = loadedGrid;
+        loadedAt = System.currentTimeMillis();
+      }
+    }
+    return loadedGrid;
+  }
+
+  private long getRow(double latitude) {
+    return (long) Math.floor((Math.max(-90, Math.min(latitude, 90)) + 90) / cellDegrees);
+  }
+
+  private long getColumn(double longitude) {
+    return (long) Math.floor((Math.max(-180, Math.min(longitude, 180)) + 180) / cellDegrees);
+  }
+
+  private static long getCellId(long row, long column) {
+    return row << 32 | column;
+  }
+
+  /** The comments of the grid, by cell. Guarded by the enclosing index once it is published. */
+  private class Grid {
+    private final Map<Long, List<Key>> cells = new HashMap<>();
+    private int size = 0;
+
+    private void add(Key commentKey, String geohash) {
+      double[] location = Geohash.decode(geohash);
+      cells
+          .computeIfAbsent(
+              getCellId(getRow(location[0]), getColumn(location[1])), cellId -> new ArrayList<>())
+          .add(commentKey);
+      size++;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.images;
+
+import com.google.protobuf.ByteString;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Shrinks images so that their longest edge is at most {@code maxEdge} pixels and re-encodes them
+ * as JPEG, using only ImageIO. Landmark detection does not need full-resolution photos, so this
+ * cuts the size of Vision API requests and their latency.
+ *
+ * <p>Large images are subsampled while they are decoded, so a multi-megapixel photo is never held
+ * in memory at full resolution. Work runs on a bounded pool of {@code numThreads} threads with a
+ * queue of {@code maxQueuedImages}; when the queue is full the calling thread downscales the image
+ * itself, which slows down callers instead of piling up decoded images.
+ *
+ * <p>This class is thread-safe.
+ */
+public class ImageDownscaler implements AutoCloseable {
+
+  private final int maxEdge;
+
+  private final float jpegQuality;
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * @param maxEdge The maximum width and height of downscaled images, in pixels.
+   * @param jpegQuality The JPEG compression quality, between 0 and 1.
+   * @param numThreads The number of threads that downscale images.
+   * @param maxQueuedImages The number of images that may wait for a thread.
+   */
+  public ImageDownscaler(int maxEdge, float jpegQuality, int numThreads, int maxQueuedImages) {
+    this.maxEdge = maxEdge;
+    this.jpegQuality = jpegQuality;
+    this.executor =
+        new ThreadPoolExecutor(
+            numThreads,
+            numThreads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxQueuedImages),
+            runnable -> {
+              Thread thread = new Thread(runnable, "image-downscaler");
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Downscales an image to the configured maxEdge on the pool of this downscaler and waits for the
+   * result.
+   *
+   * @param imageBytes The encoded image.
+   * @return The downscaled JPEG image, or {@code imageBytes} itself if the image already fits
+   *     within maxEdge, cannot be decoded or encoded by ImageIO, or would not get any smaller.
+   * @throws IOException - If the calling thread was interrupted while waiting.
+   */
+  public ByteString downscale(ByteString imageBytes) throws IOException {
+    return downscale(imageBytes, maxEdge);
+  }
+
+  /**
+   * Downscales an image to a given size on the pool of this downscaler and waits for the result.
+   *
+   * @param imageBytes The encoded image.
+   * @param maxEdge The maximum width and height of the downscaled image, in pixels.
+   * @return The downscaled JPEG image, or {@code imageBytes} itself if the image already fits
+   *     within maxEdge, cannot be decoded or encoded by ImageIO, or would not get any smaller.
+   * @throws IOException - If the calling thread was interrupted while waiting.
+   */
+  public ByteString downscale(ByteString imageBytes, int maxEdge) throws IOException {
+    Future<ByteString> result = executor.submit(() -> downscaleNow(imageBytes, maxEdge));
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downscaling image", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Unable to downscale image", e.getCause());
+    }
+  }
+
+  /** Stops the threads of this downscaler. */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Downscales an image on the calling thread. An image that ImageIO fails to decode or encode,
+   * such as a CMYK or slightly corrupt JPEG, is returned as is, so that it is still sent to the
+   * Vision API or served in full instead of failing the caller.
+   */
+  private ByteString downscaleNow(ByteString imageBytes, int maxEdge) {
+    try {
+      return tryDownscale(imageBytes, maxEdge);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Error: Unable to downscale image, using the original: " + e);
+      return imageBytes;
+    }
+  }
+
+  private ByteString tryDownscale(ByteString imageBytes, int maxEdge) throws IOException {
+    BufferedImage image;
+    try (ImageInputStream input = ImageIO.createImageInputStream(imageBytes.newInput())) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return imageBytes;
+      }
+
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, /* seekForwardOnly= */ true, /* ignoreMetadata= */ true);
+        int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+        if (longEdge <= maxEdge) {
+          return imageBytes;
+        }
+
+        // Skip pixels while decoding, keeping the image at least maxEdge pixels long.
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, longEdge / maxEdge);
+        readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        image = reader.read(0, readParam);
+      } finally {
+        reader.dispose();
+      }
+    }
+
+    ByteString jpegBytes = encodeJpeg(resize(image, maxEdge));
+    return jpegBytes.size() < imageBytes.size() ? jpegBytes : imageBytes;
+  }
+
+  /** Scales an image so that its longest edge is exactly maxEdge pixels. */
+  private BufferedImage resize(BufferedImage image, int maxEdge) {
+    double scale = (double) maxEdge / Math.max(image.getWidth(), image.getHeight());
+    int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+    // JPEG has no alpha channel, so draw onto an RGB image.
+    BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = resized.createGraphics();
+    try {
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return resized;
+  }
+
+  /** Encodes an image as JPEG with the configured quality. */
+  private ByteString encodeJpeg(BufferedImage image) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ImageWriteParam writeParam = writer.getDefaultWriteParam();
+    writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    writeParam.setCompressionQuality(jpegQuality);
+
+    ByteString.Output jpegBytes = ByteString.newOutput();
+    try (ImageOutputStream output = ImageIO.createImageOutputStream(jpegBytes)) {
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), writeParam);
+    } finally {
+      writer.dispose();
+    }
+    return jpegBytes.toByteString();
+  }
+}
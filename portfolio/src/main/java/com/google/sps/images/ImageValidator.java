@@ -0,0 +1,310 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.images;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+
+/**
+ * Checks that an uploaded blob is an image of a supported format and of acceptable dimensions,
+ * without reading the whole blob.
+ *
+ * <p>The format is sniffed from the magic bytes at the start of the blob, regardless of the content
+ * type sent by the browser, and the width and height are parsed from the image header. Only the
+ * first HEADER_WINDOW_SIZE bytes are fetched, except for JPEG images whose frame header follows
+ * large metadata segments: the segment chain is then followed by fetching a window at the start of
+ * each segment that lies outside the bytes read so far, up to MAX_FETCHES windows in total.
+ *
+ * <p>Images of more than {@code maxPixels} pixels are rejected, since a small compressed file can
+ * decode to a huge bitmap (a decompression bomb) when it is downscaled for landmark detection.
+ *
+ * <p>This class is thread-safe.
+ */
+public class ImageValidator {
+
+  /** The image formats accepted for upload. */
+  public enum Format {
+    JPEG,
+    PNG,
+    GIF,
+    BMP,
+    WEBP
+  }
+
+  /** The number of bytes fetched at a time while parsing an image header. */
+  private static final int HEADER_WINDOW_SIZE = 4096;
+
+  /** The largest number of windows fetched to parse the header of one image. */
+  private static final int MAX_FETCHES = 8;
+
+  private final BlobstoreService blobstoreService;
+
+  private final long maxBytes;
+
+  private final long maxPixels;
+
+  /**
+   * @param blobstoreService The Blobstore holding the uploaded blobs.
+   * @param maxBytes The largest accepted file size, in bytes.
+   * @param maxPixels The largest accepted number of pixels (width times height).
+   */
+  public ImageValidator(BlobstoreService blobstoreService, long maxBytes, long maxPixels) {
+    this.blobstoreService = blobstoreService;
+    this.maxBytes = maxBytes;
+    this.maxPixels = maxPixels;
+  }
+
+  /**
+   * Checks an uploaded blob.
+   *
+   * @param blobInfo The upload information of the blob.
+   * @return The outcome of the check, which holds the format and dimensions of a valid image.
+   */
+  public Result validate(BlobInfo blobInfo) {
+    if (blobInfo.getSize() > maxBytes) {
+      return Result.rejected("file of " + blobInfo.getSize() + " bytes is too large");
+    }
+
+    HeaderReader header = new HeaderReader(blobInfo.getBlobKey(), blobInfo.getSize());
+    Result result;
+    try {
+      result = sniff(header);
+    } catch (HeaderTooLongException e) {
+      return Result.rejected("image header is longer than " + MAX_FETCHES + " windows");
+    }
+
+    if (result.isValid()) {
+      if (result.width <= 0 || result.height <= 0) {
+        return Result.rejected("invalid " + result.format + " dimensions");
+      }
+      if ((long) result.width * result.height > maxPixels) {
+        return Result.rejected(
+            result.format + " image of " + result.width + "x" + result.height + " is too large");
+      }
+    }
+    return result;
+  }
+
+  private static Result sniff(HeaderReader header) {
+    if (header.u8(0) == 0xFF && header.u8(1) == 0xD8 && header.u8(2) == 0xFF) {
+      return sniffJpeg(header);
+    }
+    if (header.u32BigEndian(0) == 0x89504E47L && header.u32BigEndian(4) == 0x0D0A1A0AL) {
+      // The IHDR chunk is always first and starts with the width and height.
+      return Result.valid(
+          Format.PNG, (int) header.u32BigEndian(16), (int) header.u32BigEndian(20));
+    }
+    if (header.matches(0, "GIF87a") || header.matches(0, "GIF89a")) {
+      return Result.valid(Format.GIF, header.u16LittleEndian(6), header.u16LittleEndian(8));
+    }
+    if (header.matches(0, "BM")) {
+      // Bottom-up bitmaps have a positive height and top-down bitmaps a negative one.
+      return Result.valid(
+          Format.BMP,
+          (int) header.u32LittleEndian(18),
+          Math.abs((int) header.u32LittleEndian(22)));
+    }
+    if (header.matches(0, "RIFF") && header.matches(8, "WEBP")) {
+      return sniffWebp(header);
+    }
+    return Result.rejected("not a supported image format");
+  }
+
+  /** Walks the JPEG segments up to the first start-of-frame segment, which holds the size. */
+  private static Result sniffJpeg(HeaderReader header) {
+    long position = 2;
+    while (true) {
+      if (header.u8(position) != 0xFF) {
+        return Result.rejected("corrupt JPEG segment");
+      }
+      int marker = header.u8(position + 1);
+      while (marker == 0xFF) {
+        // Fill bytes may precede a marker.
+        position++;
+        marker = header.u8(position + 1);
+      }
+      if (marker < 0 || marker == 0xD9 || marker == 0xDA) {
+        return Result.rejected("JPEG image without a frame header");
+      }
+      if ((marker >= 0xD0 && marker <= 0xD7) || marker == 0x01) {
+        // Markers without a length.
+        position += 2;
+        continue;
+      }
+
+      if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+        // FF Cn, length (2 bytes), sample precision (1 byte), height (2 bytes), width (2 bytes).
+        return Result.valid(
+            Format.JPEG, header.u16BigEndian(position + 7), header.u16BigEndian(position + 5));
+      }
+      int length = header.u16BigEndian(position + 2);
+      if (length < 2) {
+        return Result.rejected("corrupt JPEG segment length");
+      }
+      position += 2 + length;
+    }
+  }
+
+  private static Result sniffWebp(HeaderReader header) {
+    if (header.matches(12, "VP8 ")) {
+      // Lossy: a 3-byte frame tag and the 9D 01 2A start code precede 14-bit dimensions.
+      if (header.u8(23) != 0x9D || header.u8(24) != 0x01 || header.u8(25) != 0x2A) {
+        return Result.rejected("corrupt WebP frame header");
+      }
+      return Result.valid(
+          Format.WEBP,
+          header.u16LittleEndian(26) & 0x3FFF,
+          header.u16LittleEndian(28) & 0x3FFF);
+    }
+    if (header.matches(12, "VP8L")) {
+      // Lossless: a 0x2F signature byte, then 14-bit width - 1 and 14-bit height - 1.
+      if (header.u8(20) != 0x2F) {
+        return Result.rejected("corrupt WebP lossless header");
+      }
+      long bits = header.u32LittleEndian(21);
+      return Result.valid(
+          Format.WEBP, (int) (bits & 0x3FFF) + 1, (int) ((bits >> 14) & 0x3FFF) + 1);
+    }
+    if (header.matches(12, "VP8X")) {
+      // Extended: 24-bit canvas width - 1 and height - 1.
+      return Result.valid(
+          Format.WEBP, header.u24LittleEndian(24) + 1, header.u24LittleEndian(27) + 1);
+    }
+    return Result.rejected("unknown WebP encoding");
+  }
+
+  /** The outcome of a check of an uploaded blob. */
+  public static class Result {
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final String rejectionReason;
+
+    private Result(Format format, int width, int height, String rejectionReason) {
+      this.format = format;
+      this.width = width;
+      this.height = height;
+      this.rejectionReason = rejectionReason;
+    }
+
+    private static Result valid(Format format, int width, int height) {
+      return new Result(format, width, height, null);
+    }
+
+    private static Result rejected(String rejectionReason) {
+      return new Result(null, 0, 0, rejectionReason);
+    }
+
+    /** Returns whether the blob is an image that may be stored with a comment. */
+    public boolean isValid() {
+      return rejectionReason == null;
+    }
+
+    /** Returns the format of a valid image (null if the blob was rejected). */
+    public Format getFormat() {
+      return format;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /** Returns why the blob was rejected (null if it is a valid image). */
+    public String getRejectionReason() {
+      return rejectionReason;
+    }
+  }
+
+  /** Thrown when parsing an image header needs more than MAX_FETCHES windows. */
+  @SuppressWarnings("serial")
+  private static class HeaderTooLongException extends RuntimeException {
+    private HeaderTooLongException() {
+      super(null, null, false, false);
+    }
+  }
+
+  /**
+   * Random access to the bytes of a blob through a window of HEADER_WINDOW_SIZE bytes, which is
+   * fetched again when a byte outside of it is read.
+   */
+  private class HeaderReader {
+    private final BlobKey blobKey;
+    private final long size;
+    private long windowStart = 0;
+    private byte[] window = new byte[0];
+    private int numFetches = 0;
+
+    private HeaderReader(BlobKey blobKey, long size) {
+      this.blobKey = blobKey;
+      this.size = size;
+    }
+
+    /** Returns the byte at a position of the blob, or -1 past the end of the blob. */
+    private int u8(long position) {
+      if (position >= size) {
+        return -1;
+      }
+      if (position < windowStart || position >= windowStart + window.length) {
+        if (numFetches == MAX_FETCHES) {
+          throw new HeaderTooLongException();
+        }
+        numFetches++;
+        windowStart = position;
+        // end index is inclusive
+        window =
+            blobstoreService.fetchData(
+                blobKey, position, Math.min(size, position + HEADER_WINDOW_SIZE) - 1);
+        if (window.length == 0) {
+          return -1;
+        }
+      }
+      return window[(int) (position - windowStart)] & 0xFF;
+    }
+
+    private boolean matches(long position, String magic) {
+      for (int i = 0; i < magic.length(); i++) {
+        if (u8(position + i) != magic.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int u16BigEndian(long position) {
+      return u8(position) << 8 | u8(position + 1);
+    }
+
+    private int u16LittleEndian(long position) {
+      return u8(position) | u8(position + 1) << 8;
+    }
+
+    private int u24LittleEndian(long position) {
+      return u16LittleEndian(position) | u8(position + 2) << 16;
+    }
+
+    private long u32BigEndian(long position) {
+      return (long) u16BigEndian(position) << 16 | u16BigEndian(position + 2);
+    }
+
+    private long u32LittleEndian(long position) {
+      return u16LittleEndian(position) | (long) u16LittleEndian(position + 2) << 16;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.images;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.sps.blobs.BlobReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores resized variants of uploaded images, so that each (blob key, size) pair is downscaled
+ * only once, on its first request.
+ *
+ * <p>Variants are stored as ImageVariant kind Entities named "blobKey:size". The Blobstore file
+ * writing API is deprecated, so the variant bytes are kept in a Datastore Blob property instead of
+ * a derived blob; downscaled JPEGs are far below the 1 MB entity size limit. If downscaling would
+ * not shrink an image, the entity records that the original should be served instead.
+ *
+ * <p>This class is thread-safe.
+ */
+public class ImageVariantStore {
+
+  /** The sizes (maximum width and height in pixels) that images can be resized to. */
+  public static final List<Integer> VARIANT_SIZES =
+      Collections.unmodifiableList(Arrays.asList(160, 320, 640));
+
+  /** Variants larger than this are served but not stored, to stay within the entity size limit. */
+  private static final int MAX_STORED_VARIANT_BYTES = 900 * 1024;
+
+  private final DatastoreService datastore;
+
+  private final BlobReader blobReader;
+
+  private final ImageDownscaler imageDownscaler;
+
+  /**
+   * @param datastore The Datastore holding the ImageVariant kind.
+   * @param blobReader The reader for the original images in the Blobstore.
+   * @param imageDownscaler The downscaler that creates the variants.
+   */
+  public ImageVariantStore(
+      DatastoreService datastore, BlobReader blobReader, ImageDownscaler imageDownscaler) {
+    this.datastore = datastore;
+    this.blobReader = blobReader;
+    this.imageDownscaler = imageDownscaler;
+  }
+
+  /**
+   * Returns the variant of an image that fits within a size, creating it on first use.
+   *
+   * @param blobKey The key of the original image in the Blobstore.
+   * @param size The maximum width and height of the variant, in pixels.
+   * @return The JPEG variant, or null if the original image should be served because it is
+   *     already small enough.
+   * @throws IOException - If the original image could not be read or downscaled.
+   */
+  public ByteString getVariant(BlobKey blobKey, int size) throws IOException {
+    Key variantKey = getVariantKey(blobKey, size);
+    try {
+      Entity variantEntity = datastore.get(variantKey);
+      Blob variantBytes = (Blob) variantEntity.getProperty("bytes");
+      return variantBytes == null ? null : UnsafeByteOperations.unsafeWrap(variantBytes.getBytes());
+    } catch (EntityNotFoundException e) {
+      // The variant is created below.
+    }
+
+    ByteString originalBytes = blobReader.readBlob(blobKey);
+    ByteString variantBytes = imageDownscaler.downscale(originalBytes, size);
+    boolean useOriginal = variantBytes == originalBytes;
+
+    if (useOriginal || variantBytes.size() <= MAX_STORED_VARIANT_BYTES) {
+      Entity variantEntity = new Entity(variantKey);
+      variantEntity.setUnindexedProperty(
+          "bytes", useOriginal ? null : new Blob(variantBytes.toByteArray()));
+      datastore.put(variantEntity);
+    }
+    return useOriginal ? null : variantBytes;
+  }
+
+  /**
+   * Returns the keys of every variant that may be stored for an image, so that the variants can be
+   * deleted along with the image.
+   *
+   * @param blobKey The key of the original image in the Blobstore.
+   * @return The ImageVariant kind keys for each of VARIANT_SIZES.
+   */
+  public static List<Key> getVariantKeys(BlobKey blobKey) {
+    List<Key> variantKeys = new ArrayList<>(VARIANT_SIZES.size());
+    for (int size : VARIANT_SIZES) {
+      variantKeys.add(getVariantKey(blobKey, size));
+    }
+    return variantKeys;
+  }
+
+  private static Key getVariantKey(BlobKey blobKey, int size) {
+    return KeyFactory.createKey("ImageVariant", blobKey.getKeyString() + ":" + size);
+  }
+}
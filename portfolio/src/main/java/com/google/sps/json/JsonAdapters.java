@@ -0,0 +1,191 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.json;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.Comment;
+import com.google.sps.data.Landmark;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link Gson} instance shared by the servlets of the web app.
+ *
+ * <p>It is built once, with hand-written {@link TypeAdapter}s for the data classes returned to the
+ * front end, so serializing them neither looks up adapters nor reads fields through reflection.
+ * The adapters produce the same JSON as Gson's reflective adapters: fields in declaration order
+ * and null fields omitted. Gson instances are thread-safe, so the instance is used by every
+ * request.
+ */
+public final class JsonAdapters {
+
+  public static final Gson GSON =
+      new GsonBuilder()
+          .registerTypeAdapter(BlobKey.class, new BlobKeyAdapter().nullSafe())
+          .registerTypeAdapter(Landmark.class, new LandmarkAdapter().nullSafe())
+          .registerTypeAdapter(Comment.class, new CommentAdapter().nullSafe())
+          .create();
+
+  private JsonAdapters() {}
+
+  /** Writes a BlobKey as {@code {"blobKey": "..."}}. */
+  private static class BlobKeyAdapter extends TypeAdapter<BlobKey> {
+    @Override
+    public void write(JsonWriter out, BlobKey blobKey) throws IOException {
+      out.beginObject();
+      out.name("blobKey").value(blobKey.getKeyString());
+      out.endObject();
+    }
+
+    @Override
+    public BlobKey read(JsonReader in) throws IOException {
+      String keyString = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        if (in.nextName().equals("blobKey")) {
+          keyString = nextStringOrNull(in);
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      return keyString == null ? null : new BlobKey(keyString);
+    }
+  }
+
+  /** Writes a Landmark as {@code {"name": "...", "latitude": ..., "longitude": ...}}. */
+  private static class LandmarkAdapter extends TypeAdapter<Landmark> {
+    @Override
+    public void write(JsonWriter out, Landmark landmark) throws IOException {
+      out.beginObject();
+      if (landmark.getName() != null) {
+        out.name("name").value(landmark.getName());
+      }
+      // Boxed as Float so that the value is printed with float precision, as Gson does.
+      out.name("latitude").value((Number) landmark.getLatitude());
+      out.name("longitude").value((Number) landmark.getLongitude());
+      out.endObject();
+    }
+
+    @Override
+    public Landmark read(JsonReader in) throws IOException {
+      String name = null;
+      float latitude = 0;
+      float longitude = 0;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "name":
+            name = nextStringOrNull(in);
+            break;
+          case "latitude":
+            latitude = (float) in.nextDouble();
+            break;
+          case "longitude":
+            longitude = (float) in.nextDouble();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new Landmark(name, latitude, longitude);
+    }
+  }
+
+  /** Writes a Comment as {@code {"text": "...", "blobKeys": [{...}], "landmarks": [{...}]}}. */
+  private static class CommentAdapter extends TypeAdapter<Comment> {
+    private final BlobKeyAdapter blobKeyAdapter = new BlobKeyAdapter();
+    private final LandmarkAdapter landmarkAdapter = new LandmarkAdapter();
+
+    @Override
+    public void write(JsonWriter out, Comment comment) throws IOException {
+      out.beginObject();
+      if (comment.getText() != null) {
+        out.name("text").value(comment.getText());
+      }
+      if (comment.getBlobKeys() != null) {
+        out.name("blobKeys").beginArray();
+        for (BlobKey blobKey : comment.getBlobKeys()) {
+          blobKeyAdapter.write(out, blobKey);
+        }
+        out.endArray();
+      }
+      if (comment.getLandmarks() != null) {
+        out.name("landmarks").beginArray();
+        for (Landmark landmark : comment.getLandmarks()) {
+          landmarkAdapter.write(out, landmark);
+        }
+        out.endArray();
+      }
+      out.endObject();
+    }
+
+    @Override
+    public Comment read(JsonReader in) throws IOException {
+      String text = null;
+      List<BlobKey> blobKeys = null;
+      List<Landmark> landmarks = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "text":
+            text = in.nextString();
+            break;
+          case "blobKeys":
+            blobKeys = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+              blobKeys.add(blobKeyAdapter.read(in));
+            }
+            in.endArray();
+            break;
+          case "landmarks":
+            landmarks = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+              landmarks.add(landmarkAdapter.read(in));
+            }
+            in.endArray();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new Comment(text, blobKeys, landmarks);
+    }
+  }
+
+  private static String nextStringOrNull(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    return in.nextString();
+  }
+}
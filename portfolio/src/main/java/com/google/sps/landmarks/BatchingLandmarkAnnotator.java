@@ -0,0 +1,61 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.protobuf.ByteString;
+import com.google.sps.concurrent.MicroBatcher;
+import com.google.sps.data.Landmark;
+import java.io.IOException;
+
+/**
+ * Landmark annotator that coalesces the landmark requests of concurrent callers into a single
+ * Vision API batch call. A batch is sent as soon as it holds {@code maxBatchSize} images, or after
+ * {@code maxDelayMillis} otherwise, and each caller receives the response for its own image.
+ *
+ * <p>The Vision API accepts at most 16 images per batch call.
+ */
+public class BatchingLandmarkAnnotator implements LandmarkAnnotator {
+
+  private final MicroBatcher<AnnotateImageRequest, AnnotateImageResponse> batcher;
+
+  /**
+   * @param visionAnnotator The annotator used to send batch calls to the Vision API.
+   * @param maxBatchSize The maximum number of images per batch call.
+   * @param maxDelayMillis The longest time an image waits for other images to join its batch.
+   */
+  public BatchingLandmarkAnnotator(
+      VisionLandmarkAnnotator visionAnnotator, int maxBatchSize, long maxDelayMillis) {
+    this.batcher =
+        new MicroBatcher<>(visionAnnotator::annotateImages, maxBatchSize, maxDelayMillis);
+  }
+
+  @Override
+  public Landmark detectLandmark(ByteString imageBytes) throws IOException {
+    AnnotateImageResponse imageResponse =
+        batcher.process(VisionLandmarkAnnotator.buildRequest(imageBytes));
+    return VisionLandmarkAnnotator.toLandmark(imageResponse);
+  }
+
+  /** Returns the number of Vision API batch calls made so far. */
+  public long getNumBatches() {
+    return batcher.getNumBatches();
+  }
+
+  /** Returns the number of images annotated so far, over all batch calls. */
+  public long getNumImages() {
+    return batcher.getNumItems();
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.landmarks;
+
+import com.google.protobuf.ByteString;
+import com.google.sps.data.Landmark;
+
+/**
+ * Landmark annotator that returns the same landmark for every image without calling the Vision
+ * API. Used to run the landmark pipeline on a local server without Cloud credentials.
+ */
+public class FakeLandmarkAnnotator implements LandmarkAnnotator {
+
+  private final Landmark landmark;
+
+  /** @param landmark The landmark returned for every image (null to detect no landmarks). */
+  public FakeLandmarkAnnotator(Landmark landmark) {
+    this.landmark = landmark;
+  }
+
+  @Override
+  public Landmark detectLandmark(ByteString imageBytes) {
+    return landmark;
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.landmarks;
+
+import com.google.protobuf.ByteString;
+import com.google.sps.data.Landmark;
+import java.io.IOException;
+
+/**
+ * Detects the landmark shown in an image. The production implementation calls the Google Cloud
+ * Vision API, and other implementations can stand in for it locally.
+ */
+public interface LandmarkAnnotator {
+
+  /**
+   * Detects the most likely landmark in an image.
+   *
+   * @param imageBytes The binary data of the image.
+   * @return The detected landmark, or null if there is no landmark in the image.
+   * @throws IOException - If the landmark could not be detected, for example because the
+   *     annotation service is unavailable. Callers may retry the detection.
+   */
+  Landmark detectLandmark(ByteString imageBytes) throws IOException;
+}
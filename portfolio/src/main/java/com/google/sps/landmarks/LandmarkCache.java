@@ -0,0 +1,184 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.cache.CacheStats;
+import com.google.sps.data.Landmark;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed cache of landmark detection results, keyed by the SHA-256 digest of the image
+ * bytes. Uploads of an image that was already annotated reuse the earlier result instead of
+ * calling the Vision API again.
+ *
+ * <p>Results are kept in an in-memory LRU map of at most {@code maxEntries} digests, backed by the
+ * LandmarkCache kind in the Datastore so that they survive instance restarts and are shared
+ * between instances. Both levels ignore results older than {@code ttlMillis}. Images without a
+ * landmark are cached as well, so they are not annotated again either.
+ *
+ * <p>This class is thread-safe.
+ */
+public class LandmarkCache {
+
+  private final DatastoreService datastore;
+
+  private final int maxEntries;
+
+  private final long ttlMillis;
+
+  /** Results in least-recently-used first order. Guarded by {@code this}. */
+  private final LinkedHashMap<String, CachedLandmark> results =
+      new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long expirations = 0;
+
+  /**
+   * @param datastore The Datastore holding the LandmarkCache kind.
+   * @param maxEntries The maximum number of results held in memory.
+   * @param ttlMillis The number of milliseconds a result may be reused after it was detected.
+   */
+  public LandmarkCache(DatastoreService datastore, int maxEntries, long ttlMillis) {
+    this.datastore = datastore;
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Looks up the landmark detected earlier for an image, first in memory and then in the Datastore.
+   *
+   * @param digest The hex encoded SHA-256 digest of the image bytes.
+   * @return The cached result, or null if the image has not been annotated within the TTL.
+   */
+  public CachedLandmark get(String digest) {
+    CachedLandmark cached = getFromMemory(digest);
+    if (cached == null) {
+      cached = getFromDatastore(digest);
+      if (cached != null) {
+        putInMemory(digest, cached);
+      }
+    }
+
+    synchronized (this) {
+      if (cached == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+    }
+    return cached;
+  }
+
+  /**
+   * Stores the landmark detected for an image.
+   *
+   * @param digest The hex encoded SHA-256 digest of the image bytes.
+   * @param landmark The detected landmark (null if the image has no landmark).
+   */
+  public void put(String digest, Landmark landmark) {
+    CachedLandmark cached = new CachedLandmark(landmark, System.currentTimeMillis());
+
+    Entity cacheEntity = new Entity(createKey(digest));
+    cacheEntity.setUnindexedProperty(
+        "landmarkName", landmark == null ? null : landmark.getName());
+    cacheEntity.setUnindexedProperty(
+        "landmarkGeoPt",
+        landmark == null ? null : new GeoPt(landmark.getLatitude(), landmark.getLongitude()));
+    cacheEntity.setUnindexedProperty("cachedAt", cached.cachedAt);
+    datastore.put(cacheEntity);
+
+    putInMemory(digest, cached);
+  }
+
+  /** Returns a snapshot of the hit, miss, eviction and expiration counters. */
+  public synchronized CacheStats getStats() {
+    return new CacheStats(hits, misses, evictions, expirations, results.size());
+  }
+
+  private synchronized CachedLandmark getFromMemory(String digest) {
+    CachedLandmark cached = results.get(digest);
+    if (cached != null && isExpired(cached)) {
+      results.remove(digest);
+      expirations++;
+      return null;
+    }
+    return cached;
+  }
+
+  private synchronized void putInMemory(String digest, CachedLandmark cached) {
+    results.put(digest, cached);
+    Iterator<Map.Entry<String, CachedLandmark>> leastRecentlyUsed = results.entrySet().iterator();
+    while (results.size() > maxEntries) {
+      leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      evictions++;
+    }
+  }
+
+  private CachedLandmark getFromDatastore(String digest) {
+    Entity cacheEntity;
+    try {
+      cacheEntity = datastore.get(createKey(digest));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+
+    Landmark landmark = null;
+    if (cacheEntity.getProperty("landmarkName") != null) {
+      GeoPt landmarkGeoPt = (GeoPt) cacheEntity.getProperty("landmarkGeoPt");
+      landmark =
+          new Landmark(
+              (String) cacheEntity.getProperty("landmarkName"),
+              landmarkGeoPt.getLatitude(),
+              landmarkGeoPt.getLongitude());
+    }
+    CachedLandmark cached =
+        new CachedLandmark(landmark, (Long) cacheEntity.getProperty("cachedAt"));
+    return isExpired(cached) ? null : cached;
+  }
+
+  private boolean isExpired(CachedLandmark cached) {
+    return System.currentTimeMillis() - cached.cachedAt > ttlMillis;
+  }
+
+  private static Key createKey(String digest) {
+    return KeyFactory.createKey("LandmarkCache", digest);
+  }
+
+  /** A landmark detection result along with the time it was detected. */
+  public static class CachedLandmark {
+    private final Landmark landmark;
+    private final long cachedAt;
+
+    private CachedLandmark(Landmark landmark, long cachedAt) {
+      this.landmark = landmark;
+      this.cachedAt = cachedAt;
+    }
+
+    /** Returns the detected landmark, or null if the image has no landmark. */
+    public Landmark getLandmark() {
+      return landmark;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.landmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.LandmarkCount;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Number of comments per detected landmark, kept in sharded counters so that concurrent uploads
+ * of the same landmark do not contend on a single entity.
+ *
+ * <p>Each landmark has {@code numShards} LandmarkCounterShard kind Entities. An increment updates
+ * one shard picked at random, in the transaction of the caller, so concurrent increments rarely
+ * touch the same entity. Increments do not write a total, since a single total entity would be
+ * written by every increment of the landmark again. Instead, {@link #rollUp()} is run periodically
+ * by a cron job; it sums the shards and stores each total in the LandmarkCount kind Entity of the
+ * landmark, whose indexed 'count' property lets the top K landmarks be read with a sorted query of
+ * K entities. The counts read are therefore up to one roll-up interval old.
+ *
+ * <p>This class is thread-safe.
+ */
+public class LandmarkCounter {
+
+  private static final String SHARD_KIND = "LandmarkCounterShard";
+
+  private static final String COUNT_KIND = "LandmarkCount";
+
+  private static final int WRITE_BATCH_SIZE = 500;
+
+  private final DatastoreService datastore;
+
+  private final int numShards;
+
+  /**
+   * @param datastore The Datastore holding the LandmarkCounterShard and LandmarkCount kinds.
+   * @param numShards The number of shards of the counter of each landmark.
+   */
+  public LandmarkCounter(DatastoreService datastore, int numShards) {
+    this.datastore = datastore;
+    this.numShards = numShards;
+  }
+
+  /**
+   * Adds a comment to the counts of its landmarks. A landmark shown in several images of the
+   * comment is counted once, since the counts are numbers of comments. The shards are written in
+   * the given transaction, which must be a cross-group transaction with room for one entity group
+   * per distinct landmark, so that the caller can record that the comment was counted in the same
+   * commit.
+   *
+   * @param txn The transaction the shards are updated in.
+   * @param landmarkNames The names of the landmarks detected in the images of the comment.
+   */
+  public void increment(Transaction txn, Collection<String> landmarkNames) {
+    Map<String, Key> shardKeys = new HashMap<>();
+    for (String landmarkName : new HashSet<>(landmarkNames)) {
+      shardKeys.put(
+          landmarkName,
+          getShardKey(landmarkName, ThreadLocalRandom.current().nextInt(numShards)));
+    }
+    Map<Key, Entity> shards = datastore.get(txn, shardKeys.values());
+
+    List<Entity> updatedShards = new ArrayList<>();
+    for (Key shardKey : shardKeys.values()) {
+      Entity shardEntity = shards.get(shardKey);
+      long count = shardEntity == null ? 0 : (Long) shardEntity.getProperty("count");
+      shardEntity = new Entity(shardKey);
+      shardEntity.setUnindexedProperty("count", count + 1);
+      updatedShards.add(shardEntity);
+    }
+    datastore.put(txn, updatedShards);
+  }
+
+  /**
+   * Returns the landmarks with the most comments, as of the last {@link #rollUp()}.
+   *
+   * @param k The maximum number of landmarks returned.
+   * @return The counts of at most k landmarks, largest count first.
+   */
+  public List<LandmarkCount> getTopLandmarks(int k) {
+    Query query = new Query(COUNT_KIND).addSort("count", SortDirection.DESCENDING);
+    List<LandmarkCount> topLandmarks = new ArrayList<>();
+    for (Entity countEntity :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withLimit(k))) {
+      topLandmarks.add(
+          new LandmarkCount(
+              countEntity.getKey().getName(), (Long) countEntity.getProperty("count")));
+    }
+    return topLandmarks;
+  }
+
+  /**
+   * Sums the shards of every landmark and stores the totals that changed since the last roll-up in
+   * the LandmarkCount kind. Totals whose shards are gone are deleted. Called periodically, so that
+   * no request reads every shard and no increment writes a total.
+   */
+  public void rollUp() {
+    Map<String, Long> counts = new HashMap<>();
+    for (Entity shardEntity : datastore.prepare(new Query(SHARD_KIND)).asIterable()) {
+      String shardName = shardEntity.getKey().getName();
+      counts.merge(
+          shardName.substring(0, shardName.lastIndexOf('#')),
+          (Long) shardEntity.getProperty("count"),
+          Long::sum);
+    }
+
+    Map<String, Long> storedCounts = new HashMap<>();
+    List<Key> staleKeys = new ArrayList<>();
+    for (Entity countEntity : datastore.prepare(new Query(COUNT_KIND)).asIterable()) {
+      String landmarkName = countEntity.getKey().getName();
+      if (counts.containsKey(landmarkName)) {
+        storedCounts.put(landmarkName, (Long) countEntity.getProperty("count"));
+      } else {
+        staleKeys.add(countEntity.getKey());
+        if (staleKeys.size() == WRITE_BATCH_SIZE) {
+          datastore.delete(staleKeys);
+          staleKeys.clear();
+        }
+      }
+    }
+    datastore.delete(staleKeys);
+
+    List<Entity> countEntities = new ArrayList<>();
+    for (Map.Entry<String, Long> count : counts.entrySet()) {
+      if (!count.getValue().equals(storedCounts.get(count.getKey()))) {
+        Entity countEntity = new Entity(COUNT_KIND, count.getKey());
+        // Indexed so that the top landmarks are read with a sorted query of K entities.
+        countEntity.setProperty("count", count.getValue());
+        countEntities.add(countEntity);
+      }
+      if (countEntities.size() == WRITE_BATCH_SIZE) {
+        datastore.put(countEntities);
+        countEntities.clear();
+      }
+    }
+    datastore.put(countEntities);
+  }
+
+  /** Deletes every counter and total. Called once every comment has been deleted. */
+  public void clear() {
+    for (String kind : new String[] {SHARD_KIND, COUNT_KIND}) {
+      List<Key> keys = new ArrayList<>();
+      for (Entity entity : datastore.prepare(new Query(kind).setKeysOnly()).asIterable()) {
+        keys.add(entity.getKey());
+        if (keys.size() == WRITE_BATCH_SIZE) {
+          datastore.delete(keys);
+          keys.clear();
+        }
+      }
+      datastore.delete(keys);
+    }
+  }
+
+  private static Key getShardKey(String landmarkName, int shard) {
+    return KeyFactory.createKey(SHARD_KIND, landmarkName + "#" + shard);
+  }
+}
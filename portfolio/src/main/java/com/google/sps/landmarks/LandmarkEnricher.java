@@ -0,0 +1,276 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.protobuf.ByteString;
+import com.google.sps.blobs.BlobReader;
+import com.google.sps.cache.CommentFeedCache;
+import com.google.sps.cache.CommentThreadVersion;
+import com.google.sps.comments.CommentFeedSnapshot;
+import com.google.sps.concurrent.ParallelMapper;
+import com.google.sps.data.Landmark;
+import com.google.sps.data.LandmarkState;
+import com.google.sps.geo.Geohash;
+import com.google.sps.geo.LandmarkGridIndex;
+import com.google.sps.images.ImageDownscaler;
+import com.google.sps.search.CommentSearchIndex;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+/**
+ * Runs landmark detection for the images of a stored comment and patches the 'landmarkName',
+ * 'landmarkGeoPt', 'landmarkGeohash' and 'landmarkState' properties of the comment with the
+ * results. The first three properties hold one value per detected landmark.
+ *
+ * <p>The images of a comment are processed in parallel by a {@link ParallelMapper}, so detection
+ * takes as long as the slowest image, and the annotator coalesces their Vision API calls into a
+ * single batch. Each image is read from the Blobstore once, and its result is looked up in the
+ * {@link LandmarkCache} by the digest of those bytes, so that images which were already annotated
+ * are not sent to the Vision API again. Other images are downscaled, from the bytes already read,
+ * before they are sent to the Vision API.
+ *
+ * <p>The steps that follow the update of a comment are safe to repeat, so a retried task runs them
+ * all again. The landmark counters are the exception: they are incremented in the same transaction
+ * that sets the 'landmarkCounted' property of the comment, so each comment is counted once.
+ *
+ * <p>This class is thread-safe.
+ */
+public class LandmarkEnricher {
+
+  /** The number of attempts to count the landmarks of a comment when transactions conflict. */
+  private static final int MAX_COUNT_ATTEMPTS = 5;
+
+  private final DatastoreService datastore;
+
+  private final BlobReader blobReader;
+
+  private final ImageDownscaler imageDownscaler;
+
+  private final LandmarkAnnotator annotator;
+
+  private final LandmarkCache landmarkCache;
+
+  private final CommentThreadVersion commentThreadVersion;
+
+  private final CommentFeedCache commentFeedCache;
+
+  private final CommentFeedSnapshot commentFeedSnapshot;
+
+  private final LandmarkGridIndex landmarkGridIndex;
+
+  private final LandmarkCounter landmarkCounter;
+
+  private final ParallelMapper imageMapper;
+
+  private final CommentSearchIndex commentSearchIndex;
+
+  /**
+   * @param datastore The Datastore holding the Comment kind Entities.
+   * @param blobReader The reader for the comment images in the Blobstore.
+   * @param imageDownscaler The downscaler that shrinks images before they are annotated.
+   * @param annotator The annotator used to detect landmarks.
+   * @param landmarkCache The cache of earlier detection results, keyed by image digest.
+   * @param commentThreadVersion The version stamp updated once a comment is updated.
+   * @param commentFeedCache The cache invalidated once a comment is updated.
+   * @param commentFeedSnapshot The feed snapshot updated once a comment is updated.
+   * @param landmarkGridIndex The grid a comment is added to once its landmarks are detected.
+   * @param landmarkCounter The counters incremented once the landmarks of a comment are detected.
+   * @param imageMapper The mapper that processes the images of a comment in parallel.
+   * @param commentSearchIndex The index the landmark names of a comment are added to.
+   */
+  public LandmarkEnricher(
+      DatastoreService datastore,
+      BlobReader blobReader,
+      ImageDownscaler imageDownscaler,
+      LandmarkAnnotator annotator,
+      LandmarkCache landmarkCache,
+      CommentThreadVersion commentThreadVersion,
+      CommentFeedCache commentFeedCache,
+      CommentFeedSnapshot commentFeedSnapshot,
+      LandmarkGridIndex landmarkGridIndex,
+      LandmarkCounter landmarkCounter,
+      ParallelMapper imageMapper,
+      CommentSearchIndex commentSearchIndex) {
+    this.datastore = datastore;
+    this.blobReader = blobReader;
+    this.imageDownscaler = imageDownscaler;
+    this.annotator = annotator;
+    this.landmarkCache = landmarkCache;
+    this.commentThreadVersion = commentThreadVersion;
+    this.commentFeedCache = commentFeedCache;
+    this.commentFeedSnapshot = commentFeedSnapshot;
+    this.landmarkGridIndex = landmarkGridIndex;
+    this.landmarkCounter = landmarkCounter;
+    this.imageMapper = imageMapper;
+    this.commentSearchIndex = commentSearchIndex;
+  }
+
+  /**
+   * Detects the landmarks in the images of a comment and stores them in the comment. Nothing is
+   * done if the comment has been deleted in the meantime.
+   *
+   * @param commentKey The key of the Comment kind Entity to update.
+   * @param blobKeys The keys of the images of the comment in the Blobstore.
+   * @throws IOException - If an image could not be read or its landmark could not be detected.
+   */
+  public void enrich(Key commentKey, List<BlobKey> blobKeys) throws IOException {
+    try {
+      datastore.get(commentKey);
+    } catch (EntityNotFoundException e) {
+      return;
+    }
+
+    List<Landmark> landmarks = new ArrayList<>();
+    for (Landmark landmark : imageMapper.map(blobKeys, this::detectLandmark)) {
+      if (landmark != null) {
+        landmarks.add(landmark);
+      }
+    }
+
+    updateComment(
+        commentKey,
+        landmarks,
+        landmarks.isEmpty() ? LandmarkState.NOT_FOUND : LandmarkState.DETECTED);
+  }
+
+  /**
+   * Records that landmark detection gave up on the images of a comment.
+   *
+   * @param commentKey The key of the Comment kind Entity to update.
+   */
+  public void markFailed(Key commentKey) {
+    updateComment(commentKey, Collections.emptyList(), LandmarkState.FAILED);
+  }
+
+  /**
+   * Detects the landmark in one image.
+   *
+   * @param blobKey The key of the image in the Blobstore.
+   * @return The detected landmark (null if there is none).
+   * @throws IOException - If the image could not be read or the landmark could not be detected.
+   */
+  private Landmark detectLandmark(BlobKey blobKey) throws IOException {
+    ByteString blobBytes = blobReader.readBlob(blobKey);
+    String digest = BlobReader.digest(blobBytes);
+    LandmarkCache.CachedLandmark cached = landmarkCache.get(digest);
+    if (cached != null) {
+      return cached.getLandmark();
+    }
+
+    Landmark landmark = annotator.detectLandmark(imageDownscaler.downscale(blobBytes));
+    landmarkCache.put(digest, landmark);
+    return landmark;
+  }
+
+  /**
+   * Patches the landmark properties of a comment in a transaction, so that the update does not
+   * overwrite concurrent changes to the rest of the comment.
+   *
+   * @param commentKey The key of the Comment kind Entity to update.
+   * @param landmarks The detected landmarks, one per image that shows a landmark.
+   * @param landmarkState The final state of landmark detection for the comment.
+   */
+  private void updateComment(
+      Key commentKey, List<Landmark> landmarks, LandmarkState landmarkState) {
+    Entity commentEntity;
+    List<String> names = new ArrayList<>();
+    List<String> geohashes = new ArrayList<>();
+    Transaction txn = datastore.beginTransaction();
+    try {
+      commentEntity = datastore.get(txn, commentKey);
+      if (!landmarks.isEmpty()) {
+        List<GeoPt> geoPts = new ArrayList<>();
+        for (Landmark landmark : landmarks) {
+          names.add(landmark.getName());
+          geoPts.add(new GeoPt(landmark.getLatitude(), landmark.getLongitude()));
+          geohashes.add(
+              Geohash.encode(
+                  landmark.getLatitude(), landmark.getLongitude(), Geohash.MAX_PRECISION));
+        }
+        commentEntity.setProperty("landmarkName", names);
+        commentEntity.setProperty("landmarkGeoPt", geoPts);
+        // Indexed so that /comments-near can find the comment with a range query on a prefix.
+        commentEntity.setProperty("landmarkGeohash", geohashes);
+      }
+      commentEntity.setProperty("landmarkState", landmarkState.name());
+      datastore.put(txn, commentEntity);
+      txn.commit();
+    } catch (EntityNotFoundException e) {
+      // The comment was deleted while its landmark was being detected.
+      return;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+
+    CommentThreadVersion.Stamp stamp = commentThreadVersion.recordUpdatedComment();
+    commentFeedSnapshot.updateComment(commentEntity, stamp.getRevision());
+    commentFeedCache.invalidate();
+    for (String geohash : geohashes) {
+      landmarkGridIndex.add(commentKey, geohash);
+    }
+    if (!names.isEmpty()) {
+      commentSearchIndex.index(commentKey, (Long) commentEntity.getProperty("timestamp"), names);
+      countLandmarks(commentKey, names);
+    }
+  }
+
+  /**
+   * Increments the landmark counters for a comment unless its 'landmarkCounted' property shows
+   * that an earlier attempt already did. The counters and the property are written in one
+   * cross-group transaction, which is retried with other shards if it conflicts.
+   *
+   * @param commentKey The key of the Comment kind Entity.
+   * @param names The names of the landmarks detected in the images of the comment.
+   */
+  private void countLandmarks(Key commentKey, List<String> names) {
+    for (int attempt = 1; ; attempt++) {
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Entity commentEntity = datastore.get(txn, commentKey);
+        if (Boolean.TRUE.equals(commentEntity.getProperty("landmarkCounted"))) {
+          return;
+        }
+        landmarkCounter.increment(txn, names);
+        commentEntity.setUnindexedProperty("landmarkCounted", true);
+        datastore.put(txn, commentEntity);
+        txn.commit();
+        return;
+      } catch (EntityNotFoundException e) {
+        // The comment was deleted while its landmarks were being counted.
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (attempt == MAX_COUNT_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+}
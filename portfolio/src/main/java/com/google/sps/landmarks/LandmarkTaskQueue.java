@@ -0,0 +1,33 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Key;
+import java.util.List;
+
+/**
+ * Queue of landmark detection tasks. Each task asks for the landmarks in the images of a comment
+ * to be detected and stored in the comment once the comment itself has been saved.
+ */
+public interface LandmarkTaskQueue {
+
+  /**
+   * Schedules landmark detection for the images of a comment.
+   *
+   * @param commentKey The key of the Comment kind Entity to update with the detected landmarks.
+   * @param blobKeys The keys of the images of the comment in the Blobstore.
+   */
+  void enqueue(Key commentKey, List<BlobKey> blobKeys);
+}
@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import java.util.List;
+
+/**
+ * Landmark task queue backed by an App Engine push queue. Each task is delivered as a POST request
+ * to the task handler URL, which runs the detection with {@link LandmarkEnricher}.
+ *
+ * <p>The rate, concurrency and retry backoff of the queue are configured in queue.xml. Because
+ * tasks are stored durably by the queue, a burst of uploads builds up a backlog that is worked
+ * off at the configured rate rather than adding load to the Vision API all at once.
+ */
+public class PushQueueLandmarkTaskQueue implements LandmarkTaskQueue {
+
+  private final Queue queue;
+
+  private final String taskHandlerUrl;
+
+  /**
+   * @param queueName The name of the push queue defined in queue.xml.
+   * @param taskHandlerUrl The URL of the servlet that runs landmark detection tasks.
+   */
+  public PushQueueLandmarkTaskQueue(String queueName, String taskHandlerUrl) {
+    this.queue = QueueFactory.getQueue(queueName);
+    this.taskHandlerUrl = taskHandlerUrl;
+  }
+
+  @Override
+  public void enqueue(Key commentKey, List<BlobKey> blobKeys) {
+    TaskOptions task =
+        TaskOptions.Builder.withUrl(taskHandlerUrl)
+            .param("comment-key", KeyFactory.keyToString(commentKey));
+    for (BlobKey blobKey : blobKeys) {
+      task.param("blob-key", blobKey.getKeyString());
+    }
+    queue.add(task);
+  }
+}
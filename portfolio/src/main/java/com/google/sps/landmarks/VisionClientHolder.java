@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the single {@code ImageAnnotatorClient} shared by every Vision API call of the app, so that
+ * channel setup, the TLS handshake and the client thread pool are paid once per instance instead
+ * of once per upload.
+ *
+ * <p>The holder is created when the web app starts and closed when it shuts down (see
+ * PortfolioContextListener). Before handing out the client it checks that the client has not been
+ * shut down, and replaces it if it has.
+ *
+ * <p>This class is thread-safe.
+ */
+public class VisionClientHolder implements AutoCloseable {
+
+  /** How long {@link #close()} waits for in-flight calls to finish. */
+  private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+  private final ImageAnnotatorSettings settings;
+
+  /** Guarded by {@code this}. */
+  private ImageAnnotatorClient client;
+
+  /** The number of times an unhealthy client was replaced. Guarded by {@code this}. */
+  private long numRecreations = 0;
+
+  /**
+   * @param settings The settings used to create the client, including its transport channel.
+   * @throws IOException - If the client could not be created.
+   */
+  public VisionClientHolder(ImageAnnotatorSettings settings) throws IOException {
+    this.settings = settings;
+    this.client = ImageAnnotatorClient.create(settings);
+  }
+
+  /**
+   * Creates a holder for a client that talks to the default Vision API endpoint.
+   *
+   * @param channelPoolSize The number of gRPC channels the client spreads its calls over.
+   * @return The new holder.
+   * @throws IOException - If the client could not be created.
+   */
+  public static VisionClientHolder create(int channelPoolSize) throws IOException {
+    ImageAnnotatorSettings settings =
+        ImageAnnotatorSettings.newBuilder()
+            .setTransportChannelProvider(
+                ImageAnnotatorSettings.defaultGrpcTransportProviderBuilder()
+                    .setPoolSize(channelPoolSize)
+                    .build())
+            .build();
+    return new VisionClientHolder(settings);
+  }
+
+  /**
+   * Returns the shared client, replacing it first if it has been shut down.
+   *
+   * @return A client that accepts calls.
+   * @throws IOException - If a replacement client could not be created.
+   */
+  public synchronized ImageAnnotatorClient getClient() throws IOException {
+    if (client.isShutdown() || client.isTerminated()) {
+      client = ImageAnnotatorClient.create(settings);
+      numRecreations++;
+    }
+    return client;
+  }
+
+  /** Returns the number of times the client was found shut down and replaced. */
+  public synchronized long getNumRecreations() {
+    return numRecreations;
+  }
+
+  /** Shuts the client down, waiting briefly for in-flight calls to finish. */
+  @Override
+  public synchronized void close() {
+    client.close();
+    try {
+      client.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
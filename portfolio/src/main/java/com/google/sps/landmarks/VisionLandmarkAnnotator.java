@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.landmarks;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.protobuf.ByteString;
+import com.google.sps.data.Landmark;
+import com.google.sps.metrics.LatencyHistogram;
+import com.google.type.LatLng;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/** Detects landmarks using Landmark Detection annotation with the Google Cloud Vision API. */
+public class VisionLandmarkAnnotator implements LandmarkAnnotator {
+
+  private final VisionClientHolder clientHolder;
+
+  private final LatencyHistogram annotateLatency;
+
+  /**
+   * @param clientHolder The holder of the shared Vision API client.
+   * @param annotateLatency The histogram the latency of every Vision API call is recorded in.
+   */
+  public VisionLandmarkAnnotator(
+      VisionClientHolder clientHolder, LatencyHistogram annotateLatency) {
+    this.clientHolder = clientHolder;
+    this.annotateLatency = annotateLatency;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IOException - If the Vision API client could not be obtained, or if the Vision API
+   *     returns an error for the image.
+   */
+  @Override
+  public Landmark detectLandmark(ByteString imageBytes) throws IOException {
+    List<AnnotateImageResponse> responses =
+        annotateImages(Collections.singletonList(buildRequest(imageBytes)));
+    return toLandmark(responses.get(0));
+  }
+
+  /**
+   * Sends a batch of annotate requests to the Vision API in a single call.
+   *
+   * @param requests The requests to annotate.
+   * @return The responses, in the same order as {@code requests}.
+   * @throws IOException - If the Vision API client could not be obtained.
+   */
+  public List<AnnotateImageResponse> annotateImages(List<AnnotateImageRequest> requests)
+      throws IOException {
+    ImageAnnotatorClient client = clientHolder.getClient();
+    long annotateStart = System.nanoTime();
+    BatchAnnotateImagesResponse batchResponse = client.batchAnnotateImages(requests);
+    annotateLatency.record(System.nanoTime() - annotateStart);
+    return batchResponse.getResponsesList();
+  }
+
+  /**
+   * Builds the request for Landmark Detection annotation of a single image.
+   *
+   * @param imageBytes Binary data for the image that is being inspected for landmark detection.
+   * @return The annotate request for the image.
+   */
+  static AnnotateImageRequest buildRequest(ByteString imageBytes) {
+    Image image = Image.newBuilder().setContent(imageBytes).build();
+    Feature feature = Feature.newBuilder().setType(Feature.Type.LANDMARK_DETECTION).build();
+    return AnnotateImageRequest.newBuilder().addFeatures(feature).setImage(image).build();
+  }
+
+  /**
+   * Extracts the most likely landmark from the annotate response of an image. The first landmark
+   * annotation is used, since annotations are ordered by confidence.
+   *
+   * @param imageResponse The Vision API response for a single image.
+   * @return The landmark, or null if no landmark was detected in the image.
+   * @throws IOException - If the Vision API returned an error for the image.
+   */
+  static Landmark toLandmark(AnnotateImageResponse imageResponse) throws IOException {
+    if (imageResponse.hasError()) {
+      throw new IOException("Vision API error: " + imageResponse.getError().getMessage());
+    }
+
+    List<EntityAnnotation> landmarkInfoList = imageResponse.getLandmarkAnnotationsList();
+    if (landmarkInfoList.isEmpty()) {
+      return null;
+    }
+
+    EntityAnnotation landmarkInfo = landmarkInfoList.get(0);
+    LatLng landmarkLatLng = landmarkInfo.getLocationsList().listIterator().next().getLatLng();
+    return new Landmark(
+        landmarkInfo.getDescription(),
+        (float) landmarkLatLng.getLatitude(),
+        (float) landmarkLatLng.getLongitude());
+  }
+}
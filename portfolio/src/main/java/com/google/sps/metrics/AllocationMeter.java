@@ -0,0 +1,66 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Reads the number of bytes allocated by the current thread from the HotSpot ThreadMXBean. The
+ * count only covers the calling thread, so work a request hands to other threads is not included.
+ */
+public final class AllocationMeter {
+
+  /** The bean, or null if the JVM or the sandbox does not support allocation counting. */
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+  private AllocationMeter() {}
+
+  /** Returns true if {@link #getAllocatedBytes()} counts allocations on this JVM. */
+  public static boolean isSupported() {
+    return THREAD_MX_BEAN != null;
+  }
+
+  /**
+   * Returns the total number of bytes allocated by the current thread so far, or -1 if allocation
+   * counting is not supported.
+   */
+  public static long getAllocatedBytes() {
+    if (THREAD_MX_BEAN == null) {
+      return -1;
+    }
+    return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    try {
+      java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+        return null;
+      }
+      com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadMXBean;
+      if (!hotSpotBean.isThreadAllocatedMemorySupported()) {
+        return null;
+      }
+      if (!hotSpotBean.isThreadAllocatedMemoryEnabled()) {
+        hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+      }
+      return hotSpotBean;
+    } catch (RuntimeException | LinkageError e) {
+      // The App Engine sandbox may not expose the management API.
+      System.err.println("Error: Allocation counting is not available: " + e);
+      return null;
+    }
+  }
+}
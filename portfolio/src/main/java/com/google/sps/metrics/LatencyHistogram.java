@@ -0,0 +1,110 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Log2Histogram} of latencies, in microseconds. Percentiles are reported as the upper bound
+ * of the bucket they fall in, so they are accurate to within a factor of two.
+ *
+ * <p>This class is thread-safe.
+ */
+public class LatencyHistogram extends Log2Histogram {
+
+  /**
+   * Records one latency.
+   *
+   * @param elapsedNanos The latency in nanoseconds.
+   */
+  public void record(long elapsedNanos) {
+    recordValue(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+  }
+
+  /** Returns the count, mean, 50th, 90th and 99th percentiles and maximum recorded so far. */
+  public Snapshot getSnapshot() {
+    long[] bucketCounts = getBucketCounts();
+    long snapshotCount = 0;
+    for (long bucketCount : bucketCounts) {
+      snapshotCount += bucketCount;
+    }
+
+    long max = getMax();
+    return new Snapshot(
+        snapshotCount,
+        snapshotCount == 0 ? 0 : toMillis(getSum()) / snapshotCount,
+        toMillis(percentile(bucketCounts, 0.50, max)),
+        toMillis(percentile(bucketCounts, 0.90, max)),
+        toMillis(percentile(bucketCounts, 0.99, max)),
+        toMillis(max));
+  }
+
+  private static double toMillis(long micros) {
+    return micros / 1000.0;
+  }
+
+  /**
+   * Point-in-time latency statistics in milliseconds.
+   *
+   * <p>Note: The private variables in this class are converted into JSON.
+   */
+  public static class Snapshot {
+    private final long count;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    private Snapshot(
+        long count,
+        double meanMillis,
+        double p50Millis,
+        double p90Millis,
+        double p99Millis,
+        double maxMillis) {
+      this.count = count;
+      this.meanMillis = meanMillis;
+      this.p50Millis = p50Millis;
+      this.p90Millis = p90Millis;
+      this.p99Millis = p99Millis;
+      this.maxMillis = maxMillis;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getMeanMillis() {
+      return meanMillis;
+    }
+
+    public double getP50Millis() {
+      return p50Millis;
+    }
+
+    public double getP90Millis() {
+      return p90Millis;
+    }
+
+    public double getP99Millis() {
+      return p99Millis;
+    }
+
+    public double getMaxMillis() {
+      return maxMillis;
+    }
+  }
+}
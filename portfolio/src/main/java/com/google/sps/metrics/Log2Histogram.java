@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values with buckets that double in width, starting at one unit.
+ * Recording a value is lock-free and uses constant memory, and values are known to within a factor
+ * of two, which is enough to tell the typical case from the tail.
+ *
+ * <p>This class is thread-safe.
+ */
+public class Log2Histogram {
+
+  /** Bucket i holds values in [2^(i-1), 2^i) units; bucket 0 holds 0 and the last is unbounded. */
+  public static final int NUM_BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+  private final AtomicLong sum = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one value.
+   *
+   * @param value The value, in the unit of the histogram. Negative values are recorded as 0.
+   */
+  public void recordValue(long value) {
+    long clampedValue = Math.max(0, value);
+    int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(clampedValue));
+    buckets.incrementAndGet(bucket);
+    sum.addAndGet(clampedValue);
+    max.accumulateAndGet(clampedValue, Math::max);
+  }
+
+  /** Returns a copy of the number of values in each bucket. */
+  public long[] getBucketCounts() {
+    long[] bucketCounts = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      bucketCounts[i] = buckets.get(i);
+    }
+    return bucketCounts;
+  }
+
+  /** Returns the sum of the recorded values. */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /** Returns the largest recorded value (0 if none was recorded). */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the exclusive upper bound of a bucket, in the unit of the histogram.
+   *
+   * @param bucket The index of a bucket other than the last, which is unbounded.
+   */
+  public static long getUpperBound(int bucket) {
+    return 1L << bucket;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given quantile, capped at the maximum.
+   *
+   * @param bucketCounts The bucket counts returned by {@link #getBucketCounts()}.
+   * @param quantile The quantile, between 0 and 1.
+   * @param max The value returned by {@link #getMax()}.
+   */
+  static long percentile(long[] bucketCounts, double quantile, long max) {
+    long count = 0;
+    for (long bucketCount : bucketCounts) {
+      count += bucketCount;
+    }
+    long rank = (long) Math.ceil(quantile * count);
+    long seen = 0;
+    for (int i = 0; i < bucketCounts.length; i++) {
+      seen += bucketCounts[i];
+      if (seen >= rank && seen > 0) {
+        return Math.min(max, i == 0 ? 0 : getUpperBound(i));
+      }
+    }
+    return max;
+  }
+}
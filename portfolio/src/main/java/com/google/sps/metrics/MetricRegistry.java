@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named metrics of this instance: latency histograms, histograms of the bytes allocated by
+ * requests and error counters. Components record into a metric looked up by name. /stats reports
+ * a snapshot of every latency histogram, and /metrics reports every metric in the Prometheus text
+ * format (see {@link PrometheusFormat}).
+ *
+ * <p>This class is thread-safe.
+ */
+public class MetricRegistry {
+
+  private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Log2Histogram> allocationHistograms =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, AtomicLong> errorCounters = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the histogram with the given name, creating it on first use.
+   *
+   * @param name The name the histogram is reported under.
+   * @return The histogram.
+   */
+  public LatencyHistogram getHistogram(String name) {
+    return histograms.computeIfAbsent(name, unused -> new LatencyHistogram());
+  }
+
+  /**
+   * Returns the histogram of allocated bytes with the given name, creating it on first use.
+   *
+   * @param name The name the histogram is reported under.
+   * @return The histogram, whose unit is the byte.
+   */
+  public Log2Histogram getAllocationHistogram(String name) {
+    return allocationHistograms.computeIfAbsent(name, unused -> new Log2Histogram());
+  }
+
+  /**
+   * Returns the error counter with the given name, creating it on first use.
+   *
+   * @param name The name the counter is reported under.
+   * @return The counter.
+   */
+  public AtomicLong getErrorCounter(String name) {
+    return errorCounters.computeIfAbsent(name, unused -> new AtomicLong());
+  }
+
+  /** Returns a snapshot of every histogram, sorted by name. */
+  public Map<String, LatencyHistogram.Snapshot> getHistogramSnapshots() {
+    Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+    for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+      snapshots.put(histogram.getKey(), histogram.getValue().getSnapshot());
+    }
+    return snapshots;
+  }
+
+  /** Returns every latency histogram, sorted by name. */
+  Map<String, LatencyHistogram> getHistograms() {
+    return new TreeMap<>(histograms);
+  }
+
+  /** Returns every histogram of allocated bytes, sorted by name. */
+  Map<String, Log2Histogram> getAllocationHistograms() {
+    return new TreeMap<>(allocationHistograms);
+  }
+
+  /** Returns every error counter, sorted by name. */
+  Map<String, AtomicLong> getErrorCounters() {
+    return new TreeMap<>(errorCounters);
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the metrics of a {@link MetricRegistry} in the Prometheus text exposition format
+ * (version 0.0.4). Every metric is a sample of one of three families, labelled with its name:
+ * sps_latency_seconds and sps_allocated_bytes histograms, and the sps_errors_total counter.
+ * Histograms are written with one bucket per {@link Log2Histogram} bucket.
+ */
+public final class PrometheusFormat {
+
+  /** The Content-Type of a response in this format. */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private PrometheusFormat() {}
+
+  /**
+   * Writes every metric of a registry.
+   *
+   * @param metricRegistry The metrics to write.
+   * @param out The writer the metrics are written to.
+   * @throws IOException - If an output error occurs when writing to {@code out}.
+   */
+  public static void write(MetricRegistry metricRegistry, Writer out) throws IOException {
+    out.write("# HELP sps_latency_seconds Latency of requests and of the operations they make.\n");
+    out.write("# TYPE sps_latency_seconds histogram\n");
+    for (Map.Entry<String, LatencyHistogram> histogram :
+        metricRegistry.getHistograms().entrySet()) {
+      // Latency histograms record microseconds.
+      writeHistogram(out, "sps_latency_seconds", histogram.getKey(), histogram.getValue(), 1e-6);
+    }
+
+    out.write("# HELP sps_allocated_bytes Bytes allocated by the thread of each request.\n");
+    out.write("# TYPE sps_allocated_bytes histogram\n");
+    for (Map.Entry<String, Log2Histogram> histogram :
+        metricRegistry.getAllocationHistograms().entrySet()) {
+      writeHistogram(out, "sps_allocated_bytes", histogram.getKey(), histogram.getValue(), 1);
+    }
+
+    out.write("# HELP sps_errors_total Requests that failed or answered with a server error.\n");
+    out.write("# TYPE sps_errors_total counter\n");
+    for (Map.Entry<String, AtomicLong> counter : metricRegistry.getErrorCounters().entrySet()) {
+      out.write("sps_errors_total{name=\"" + escape(counter.getKey()) + "\"} ");
+      out.write(counter.getValue().get() + "\n");
+    }
+  }
+
+  /**
+   * Writes the cumulative buckets, sum and count of one histogram.
+   *
+   * @param scale The factor converting the unit of the histogram into the unit of the family.
+   */
+  private static void writeHistogram(
+      Writer out, String family, String name, Log2Histogram histogram, double scale)
+      throws IOException {
+    String label = "{name=\"" + escape(name) + "\"";
+    long[] bucketCounts = histogram.getBucketCounts();
+    long cumulativeCount = 0;
+    for (int i = 0; i < bucketCounts.length - 1; i++) {
+      cumulativeCount += bucketCounts[i];
+      out.write(family + "_bucket" + label + ",le=\"");
+      out.write(formatBound(Log2Histogram.getUpperBound(i), scale));
+      out.write("\"} " + cumulativeCount + "\n");
+    }
+    cumulativeCount += bucketCounts[bucketCounts.length - 1];
+    out.write(family + "_bucket" + label + ",le=\"+Inf\"} " + cumulativeCount + "\n");
+    out.write(family + "_sum" + label + "} " + formatBound(histogram.getSum(), scale) + "\n");
+    out.write(family + "_count" + label + "} " + cumulativeCount + "\n");
+  }
+
+  private static String formatBound(long value, double scale) {
+    return scale == 1 ? Long.toString(value) : Double.toString(value * scale);
+  }
+
+  /** Escapes a label value, as required by the format. */
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,435 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.search;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Inverted index over the text and landmark names of comments, used by /comment-search.
+ *
+ * <p>Every term of a comment is stored as one CommentPosting kind Entity without properties, named
+ * "term timestamp commentKey" where the timestamp is inverted so that the postings of a term are
+ * ordered newest comment first. The posting list of a term, or of every term starting with a
+ * prefix, is then read with a single keys-only range query on the key name, whose cost depends on
+ * the length of the list rather than on the number of comments.
+ *
+ * <p>Recently read posting lists are kept in memory, in a cache of at most {@code maxCachedTerms}
+ * lists in least-recently-used order. Indexing a term on this instance drops the cached lists that
+ * the term belongs to, and lists indexed on other App Engine instances are picked up once the
+ * cached lists expire after {@code ttlMillis}.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentSearchIndex {
+
+  private static final String POSTING_KIND = "CommentPosting";
+
+  /** Terms longer than this are truncated, which keeps posting names within the key size limit. */
+  private static final int MAX_TERM_LENGTH = 40;
+
+  /** A character greater than every character of a term, used to bound prefix range queries. */
+  private static final char MAX_CHAR = '\uffff';
+
+  private static final int DELETE_BATCH_SIZE = 500;
+
+  /** The largest number of posting keys probed with one batch get. */
+  private static final int MAX_PROBE_KEYS = 1000;
+
+  private final DatastoreService datastore;
+
+  private final int maxPostingsPerTerm;
+
+  private final int maxCachedTerms;
+
+  private final long ttlMillis;
+
+  /** Posting lists by query term ("term" or "prefix*"). Guarded by {@code this}. */
+  private final LinkedHashMap<String, PostingList> cachedPostings;
+
+  /**
+   * Incremented every time postings are added or the index is cleared, so that a posting list read
+   * meanwhile is not cached. Guarded by {@code this}.
+   */
+  private long version = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @param datastore The Datastore holding the CommentPosting kind.
+   * @param maxPostingsPerTerm The maximum number of postings read for one query term.
+   * @param maxCachedTerms The maximum number of posting lists held in memory.
+   * @param ttlMillis The number of milliseconds a posting list is cached.
+   */
+  public CommentSearchIndex(
+      DatastoreService datastore, int maxPostingsPerTerm, int maxCachedTerms, long ttlMillis) {
+    this.datastore = datastore;
+    this.maxPostingsPerTerm = maxPostingsPerTerm;
+    this.maxCachedTerms = maxCachedTerms;
+    this.ttlMillis = ttlMillis;
+    this.cachedPostings = new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+  }
+
+  /**
+   * Splits text into lower case terms made of letters and digits.
+   *
+   * @param text The text to split (may be null).
+   * @return The distinct terms of the text, in the order they first appear.
+   */
+  public static Set<String> tokenize(String text) {
+    Set<String> terms = new LinkedHashSet<>();
+    if (text == null) {
+      return terms;
+    }
+
+    String lowerCaseText = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lowerCaseText.length(); i++) {
+      boolean isTermChar = i < lowerCaseText.length() && isTermChar(lowerCaseText.charAt(i));
+      if (isTermChar && start < 0) {
+        start = i;
+      } else if (!isTermChar && start >= 0) {
+        terms.add(lowerCaseText.substring(start, Math.min(i, start + MAX_TERM_LENGTH)));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  /**
+   * Adds the terms of some text to the index.
+   *
+   * @param commentKey The key of the Comment kind Entity the text belongs to.
+   * @param timestamp The 'timestamp' property of the comment.
+   * @param texts The texts to index, such as the comment text and its landmark names.
+   */
+  public void index(Key commentKey, long timestamp, Collection<String> texts) {
+    Set<String> terms = new LinkedHashSet<>();
+    for (String text : texts) {
+      terms.addAll(tokenize(text));
+    }
+    if (terms.isEmpty()) {
+      return;
+    }
+
+    // Zero-padded so that the names of the postings of a term sort newest first.
+    String invertedTimestamp = String.format("%019d", Long.MAX_VALUE - timestamp);
+    String commentKeyString = KeyFactory.keyToString(commentKey);
+    List<Entity> postings = new ArrayList<>(terms.size());
+    for (String term : terms) {
+      postings.add(
+          new Entity(POSTING_KIND, term + " " + invertedTimestamp + " " + commentKeyString));
+    }
+    datastore.put(postings);
+
+    synchronized (this) {
+      version++;
+      for (String term : terms) {
+        cachedPostings.remove(term);
+        for (int length = 1; length <= term.length(); length++) {
+          cachedPostings.remove(term.substring(0, length) + "*");
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the newest comments that match every term of a query. A query term ending with '*'
+   * matches every term that starts with it.
+   *
+   * <p>The shortest posting list of an exact term (or of a prefix, if every term is a prefix) is
+   * walked newest first, and each of its comments is looked up in the posting lists of the other
+   * terms. Since lists are read up to {@code maxPostingsPerTerm} postings, a comment missing from a
+   * cut list of an exact term is probed with a batch get of its posting key in that term, which the
+   * posting name makes deterministic. Prefix terms cannot be probed that way, so the result is
+   * reported as truncated when a comment is rejected only because a cut list of a prefix term
+   * misses it, when the walked list itself was cut before enough matches were found, or when the
+   * walked list is a cut list of a prefix term.
+   *
+   * @param queryTerms The query terms, as returned by {@link #tokenize} with an optional '*'.
+   * @param maxResults The maximum number of comments returned.
+   * @return The keys of at most maxResults matching comments, newest first.
+   */
+  public SearchResult search(List<String> queryTerms, int maxResults) {
+    if (queryTerms.isEmpty()) {
+      return new SearchResult(new ArrayList<>(), false);
+    }
+    Map<String, PostingList> postingLists = readPostingLists(queryTerms);
+
+    String walkedTerm = null;
+    for (String queryTerm : queryTerms) {
+      if (!queryTerm.endsWith("*") && isShorter(postingLists, queryTerm, walkedTerm)) {
+        walkedTerm = queryTerm;
+      }
+    }
+    if (walkedTerm == null) {
+      for (String queryTerm : queryTerms) {
+        if (isShorter(postingLists, queryTerm, walkedTerm)) {
+          walkedTerm = queryTerm;
+        }
+      }
+    }
+    PostingList walked = postingLists.get(walkedTerm);
+
+    List<Key> commentKeys = new ArrayList<>();
+    boolean isTruncated = false;
+    int next = 0;
+    while (commentKeys.size() < maxResults && next < walked.suffixes.size()) {
+      // The probe keys of each candidate, which may be found in one batch get of at most
+      // MAX_PROBE_KEYS keys.
+      Map<String, List<Key>> candidates = new LinkedHashMap<>();
+      int numProbeKeys = 0;
+      while (next < walked.suffixes.size() && numProbeKeys + queryTerms.size() <= MAX_PROBE_KEYS) {
+        String suffix = walked.suffixes.get(next++);
+        List<Key> probeKeys = new ArrayList<>();
+        boolean isCandidate = true;
+        for (String queryTerm : queryTerms) {
+          PostingList postingList = postingLists.get(queryTerm);
+          if (postingList == walked || postingList.suffixSet.contains(suffix)) {
+            continue;
+          }
+          if (!postingList.isTruncated) {
+            isCandidate = false;
+            break;
+          }
+          if (queryTerm.endsWith("*")) {
+            isTruncated = true;
+            isCandidate = false;
+            break;
+          }
+          probeKeys.add(KeyFactory.createKey(POSTING_KIND, queryTerm + " " + suffix));
+        }
+        if (isCandidate) {
+          candidates.put(suffix, probeKeys);
+          numProbeKeys += probeKeys.size();
+        }
+      }
+
+      Set<Key> foundKeys = new HashSet<>();
+      if (numProbeKeys > 0) {
+        List<Key> probeKeys = new ArrayList<>(numProbeKeys);
+        for (List<Key> candidateProbeKeys : candidates.values()) {
+          probeKeys.addAll(candidateProbeKeys);
+        }
+        foundKeys.addAll(datastore.get(probeKeys).keySet());
+      }
+      for (Map.Entry<String, List<Key>> candidate : candidates.entrySet()) {
+        if (commentKeys.size() < maxResults && foundKeys.containsAll(candidate.getValue())) {
+          String suffix = candidate.getKey();
+          commentKeys.add(KeyFactory.stringToKey(suffix.substring(suffix.indexOf(' ') + 1)));
+        }
+      }
+    }
+    // A cut list of a prefix term holds the newest postings of its first terms only, so even a full
+    // page of matches found in it may miss newer comments.
+    if (walked.isTruncated && (commentKeys.size() < maxResults || walkedTerm.endsWith("*"))) {
+      isTruncated = true;
+    }
+    return new SearchResult(commentKeys, isTruncated);
+  }
+
+  /** Deletes every posting. Called once every comment has been deleted. */
+  public void clear() {
+    synchronized (this) {
+      version++;
+      cachedPostings.clear();
+    }
+
+    List<Key> keys = new ArrayList<>();
+    for (Entity posting : datastore.prepare(new Query(POSTING_KIND).setKeysOnly()).asIterable()) {
+      keys.add(posting.getKey());
+      if (keys.size() == DELETE_BATCH_SIZE) {
+        datastore.delete(keys);
+        keys.clear();
+      }
+    }
+    datastore.delete(keys);
+  }
+
+  /** Returns the number of query terms answered from memory. */
+  public synchronized long getNumHits() {
+    return hits;
+  }
+
+  /** Returns the number of query terms read from the Datastore. */
+  public synchronized long getNumMisses() {
+    return misses;
+  }
+
+  /**
+   * Reads the posting list of every query term, from memory when it is cached.
+   *
+   * @return The posting lists by query term.
+   */
+  private Map<String, PostingList> readPostingLists(List<String> queryTerms) {
+    Map<String, PostingList> postingLists = new HashMap<>();
+    Map<String, Iterator<Entity>> pendingQueries = new LinkedHashMap<>();
+    long loadedVersion;
+    synchronized (this) {
+      loadedVersion = version;
+      for (String queryTerm : queryTerms) {
+        PostingList cached = cachedPostings.get(queryTerm);
+        if (cached != null && System.currentTimeMillis() - cached.cachedAt <= ttlMillis) {
+          hits++;
+          postingLists.put(queryTerm, cached);
+        } else {
+          misses++;
+          pendingQueries.put(queryTerm, null);
+        }
+      }
+    }
+
+    // Every range query is started before the first one is read, so that they run concurrently.
+    for (String queryTerm : pendingQueries.keySet()) {
+      pendingQueries.put(queryTerm, startRangeQuery(queryTerm));
+    }
+    for (Map.Entry<String, Iterator<Entity>> query : pendingQueries.entrySet()) {
+      // The postings of a prefix are ordered by term first, so they are sorted by their suffix,
+      // which starts with the inverted timestamp, and a comment with several such terms is kept
+      // once.
+      Collection<String> suffixes =
+          query.getKey().endsWith("*") ? new TreeSet<>() : new ArrayList<>();
+      int numPostings = 0;
+      Iterator<Entity> postings = query.getValue();
+      while (postings.hasNext() && numPostings < maxPostingsPerTerm) {
+        String name = postings.next().getKey().getName();
+        suffixes.add(name.substring(name.indexOf(' ') + 1));
+        numPostings++;
+      }
+      PostingList postingList = new PostingList(new ArrayList<>(suffixes), postings.hasNext());
+      postingLists.put(query.getKey(), postingList);
+      synchronized (this) {
+        if (loadedVersion == version) {
+          cachedPostings.put(query.getKey(), postingList);
+          Iterator<PostingList> leastRecentlyUsed = cachedPostings.values().iterator();
+          while (cachedPostings.size() > maxCachedTerms) {
+            leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+          }
+        }
+      }
+    }
+    return postingLists;
+  }
+
+  /**
+   * Starts the keys-only range query for the postings of a query term. One posting more than
+   * {@code maxPostingsPerTerm} is asked for, which tells whether the list was cut.
+   */
+  private Iterator<Entity> startRangeQuery(String queryTerm) {
+    String lowerBound;
+    String upperBound;
+    if (queryTerm.endsWith("*")) {
+      lowerBound = queryTerm.substring(0, queryTerm.length() - 1);
+      upperBound = lowerBound + MAX_CHAR;
+    } else {
+      // ' ' separates the term from the timestamp and '!' is the next character.
+      lowerBound = queryTerm + " ";
+      upperBound = queryTerm + "!";
+    }
+
+    Query query =
+        new Query(POSTING_KIND)
+            .setKeysOnly()
+            .setFilter(
+                CompositeFilterOperator.and(
+                    new FilterPredicate(
+                        Entity.KEY_RESERVED_PROPERTY,
+                        FilterOperator.GREATER_THAN_OR_EQUAL,
+                        KeyFactory.createKey(POSTING_KIND, lowerBound)),
+                    new FilterPredicate(
+                        Entity.KEY_RESERVED_PROPERTY,
+                        FilterOperator.LESS_THAN,
+                        KeyFactory.createKey(POSTING_KIND, upperBound))));
+    return datastore
+        .prepare(query)
+        .asIterator(FetchOptions.Builder.withLimit(maxPostingsPerTerm + 1));
+  }
+
+  /** Returns whether the posting list of a query term is shorter than that of another term. */
+  private static boolean isShorter(
+      Map<String, PostingList> postingLists, String queryTerm, String otherTerm) {
+    return otherTerm == null
+        || postingLists.get(queryTerm).suffixes.size()
+            < postingLists.get(otherTerm).suffixes.size();
+  }
+
+  private static boolean isTermChar(char c) {
+    return Character.isLetterOrDigit(c);
+  }
+
+  /** The newest comments matching a query. */
+  public static class SearchResult {
+    private final List<Key> commentKeys;
+    private final boolean isTruncated;
+
+    private SearchResult(List<Key> commentKeys, boolean isTruncated) {
+      this.commentKeys = commentKeys;
+      this.isTruncated = isTruncated;
+    }
+
+    /** Returns the keys of the matching comments, newest first. */
+    public List<Key> getCommentKeys() {
+      return commentKeys;
+    }
+
+    /**
+     * Returns whether matching comments may be missing because a posting list was cut at {@code
+     * maxPostingsPerTerm} postings.
+     */
+    public boolean isTruncated() {
+      return isTruncated;
+    }
+  }
+
+  /**
+   * The posting list of a query term, as the names of its postings without the term (the inverted
+   * timestamp followed by the comment key), newest comment first, along with the time it was read
+   * from the Datastore.
+   */
+  private static class PostingList {
+    private final List<String> suffixes;
+    private final Set<String> suffixSet;
+    private final boolean isTruncated;
+    private final long cachedAt;
+
+    private PostingList(List<String> suffixes, boolean isTruncated) {
+      this.suffixes = suffixes;
+      this.suffixSet = new HashSet<>(suffixes);
+      this.isTruncated = isTruncated;
+      this.cachedAt = System.currentTimeMillis();
+    }
+  }
+}
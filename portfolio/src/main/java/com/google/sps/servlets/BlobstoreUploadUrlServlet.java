@@ -14,9 +14,9 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.sps.blobs.UploadUrlPool;
 import java.io.IOException;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -26,17 +26,24 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/blobstore-upload-url")
 @SuppressWarnings("serial")
 public class BlobstoreUploadUrlServlet extends HttpServlet {
-  private static BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+  private UploadUrlPool uploadUrlPool;
+
+  @Override
+  public void init() throws ServletException {
+    uploadUrlPool = PortfolioContextListener.getComponent(getServletContext(), UploadUrlPool.class);
+  }
 
   /**
    * {@inheritDoc}
    *
    * <p>This Method handles GET requests for /blobstore-upload-url URL. The content of the response
-   * is the URL that allows a user to upload a file to Google Blobstore.
+   * is the URL that allows a user to upload a file to Google Blobstore, taken from the {@link
+   * UploadUrlPool}. The pool is refilled by a cron job, so at most the one URL handed out is
+   * created here.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    String uploadUrl = blobstoreService.createUploadUrl("/new-comment");
+    String uploadUrl = uploadUrlPool.take();
     response.setContentType("text/html");
     response.getWriter().println(uploadUrl);
   }
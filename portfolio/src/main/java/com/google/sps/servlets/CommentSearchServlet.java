@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.comments.CommentEntities;
+import com.google.sps.comments.FeedPosition;
+import com.google.sps.data.Comment;
+import com.google.sps.json.JsonAdapters;
+import com.google.sps.search.CommentSearchIndex;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the comments matching a search query. */
+@WebServlet("/comment-search")
+@SuppressWarnings("serial")
+public class CommentSearchServlet extends HttpServlet {
+  /** The largest number of terms in a query. */
+  private static final int MAX_QUERY_TERMS = 8;
+
+  /** The largest number of comments returned, newest first. */
+  private static final int MAX_RESULTS = 100;
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private CommentSearchIndex commentSearchIndex;
+
+  @Override
+  public void init() throws ServletException {
+    commentSearchIndex =
+        PortfolioContextListener.getComponent(getServletContext(), CommentSearchIndex.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles GET requests for the comments whose text or landmark names contain every
+   * term of the 'q' query string parameter. A term ending with '*' matches every word that starts
+   * with it, so {@code q=eiff* tower} matches a comment about the Eiffel Tower. The response is a
+   * JSON object of the form {@code {"comments": [...], "truncated": false}}, newest comment first,
+   * where 'truncated' tells whether matching comments may be missing because a posting list was
+   * too long to be read in full.
+   *
+   * <p>The {@link CommentSearchIndex} intersects the posting lists of the terms and returns the
+   * keys of the newest MAX_RESULTS matches, so only those comments are fetched, with a single batch
+   * get.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    List<String> queryTerms = parseQuery(request.getParameter("q"));
+    if (queryTerms.isEmpty() || queryTerms.size() > MAX_QUERY_TERMS) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "The q parameter must hold between 1 and " + MAX_QUERY_TERMS + " words.");
+      return;
+    }
+
+    CommentSearchIndex.SearchResult searchResult =
+        commentSearchIndex.search(queryTerms, MAX_RESULTS);
+    // Comments deleted since they were indexed are missing from the result of the get.
+    List<Entity> commentEntities =
+        new ArrayList<>(datastore.get(searchResult.getCommentKeys()).values());
+    commentEntities.sort((a, b) -> FeedPosition.of(a).compareTo(FeedPosition.of(b)));
+
+    List<Comment> comments = new ArrayList<>();
+    for (Entity commentEntity : commentEntities) {
+      comments.add(CommentEntities.toComment(commentEntity));
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("comments", comments);
+    result.put("truncated", searchResult.isTruncated());
+    response.setContentType("application/json;charset=UTF-8");
+    response.getWriter().println(JsonAdapters.GSON.toJson(result));
+  }
+
+  /**
+   * Splits a query into terms. A word directly followed by '*' becomes a prefix term.
+   *
+   * @param query The value of the 'q' parameter (may be null).
+   * @return The distinct query terms.
+   */
+  private static List<String> parseQuery(String query) {
+    List<String> queryTerms = new ArrayList<>();
+    if (query == null) {
+      return queryTerms;
+    }
+    for (String word : query.trim().split("\\s+")) {
+      List<String> terms = new ArrayList<>(CommentSearchIndex.tokenize(word));
+      for (int i = 0; i < terms.size(); i++) {
+        boolean isPrefix = i == terms.size() - 1 && word.endsWith("*");
+        String queryTerm = isPrefix ? terms.get(i) + "*" : terms.get(i);
+        if (!queryTerms.contains(queryTerm)) {
+          queryTerms.add(queryTerm);
+        }
+      }
+    }
+    return queryTerms;
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.stream.CommentStreamHub;
+import java.io.IOException;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that streams new comments to the browser as Server-Sent Events. */
+@WebServlet(urlPatterns = "/comment-stream", asyncSupported = true)
+@SuppressWarnings("serial")
+public class CommentStreamServlet extends HttpServlet {
+  /** The time after which a stream is ended, so that the client reconnects. */
+  private static final long MAX_STREAM_MILLIS =
+      Long.getLong("sps.commentStream.maxStreamMillis", 50_000L);
+
+  private CommentStreamHub commentStreamHub;
+
+  @Override
+  public void init() throws ServletException {
+    commentStreamHub =
+        PortfolioContextListener.getComponent(getServletContext(), CommentStreamHub.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles GET requests for /comment-stream. The response is a text/event-stream
+   * that carries one 'comment' event per comment submitted through this instance, whose data is
+   * the comment in the JSON form used by /comment-data. A client that reconnects with the
+   * Last-Event-ID header first receives the recent comments it missed.
+   *
+   * <p>The request is switched to asynchronous mode and returns its thread to the container right
+   * away; the {@link CommentStreamHub} writes events with non-blocking I/O. Streams end after
+   * MAX_STREAM_MILLIS, and EventSource clients then reconnect on their own. When
+   * sps.commentStream.completeAfterEvents is set, as it is on runtimes that buffer responses, a
+   * stream also ends as soon as its pending events are written, so each request is a long poll.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (commentStreamHub.isFull()) {
+      response.setHeader("Retry-After", "30");
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many streams.");
+      return;
+    }
+
+    response.setContentType("text/event-stream;charset=UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(MAX_STREAM_MILLIS);
+    commentStreamHub.subscribe(asyncContext, request.getHeader("Last-Event-ID"));
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.sps.comments.CommentEntities;
+import com.google.sps.data.Comment;
+import com.google.sps.geo.Geohash;
+import com.google.sps.geo.LandmarkGridIndex;
+import com.google.sps.json.JsonAdapters;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the comments whose landmark lies near a location. */
+@WebServlet("/comments-near")
+@SuppressWarnings("serial")
+public class CommentsNearServlet extends HttpServlet {
+  /** The largest search radius a client may request, in meters. */
+  private static final double MAX_RADIUS_METERS = 100_000;
+
+  /** The largest number of comments returned, nearest first. */
+  private static final int MAX_RESULTS = 100;
+
+  /** The largest number of geohash cells queried for one bounding box. */
+  private static final int MAX_CELLS = 12;
+
+  /** The largest number of comments read from one geohash cell. */
+  private static final int MAX_COMMENTS_PER_CELL = 1000;
+
+  private static final double EARTH_RADIUS_METERS = 6_371_000;
+
+  private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private LandmarkGridIndex landmarkGridIndex;
+
+  @Override
+  public void init() throws ServletException {
+    landmarkGridIndex =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkGridIndex.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles GET requests for the comments whose detected landmark lies within
+   * 'radius' meters of the location given by the 'lat' and 'lng' query string parameters. The
+   * response is a JSON object of the form {@code {"comments": [...]}}, nearest comment first.
+   *
+   * <p>Candidate comments are read from the in-memory {@link LandmarkGridIndex} when it holds
+   * every located comment. Otherwise the bounding box of the circle is covered with geohash cells
+   * and each cell is read with a keys-only range query on the 'landmarkGeohash' property, with all
+   * queries in flight at once. Candidates are then fetched with a single batch get and filtered by
+   * their exact great-circle distance.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    double latitude;
+    double longitude;
+    double radius;
+    try {
+      latitude = Double.parseDouble(request.getParameter("lat"));
+      longitude = Double.parseDouble(request.getParameter("lng"));
+      radius = Double.parseDouble(request.getParameter("radius"));
+    } catch (NullPointerException | NumberFormatException e) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "The lat, lng and radius parameters are required.");
+      return;
+    }
+    if (!(Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180)
+        || !(radius > 0 && radius <= MAX_RADIUS_METERS)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid location or radius.");
+      return;
+    }
+
+    Set<Key> candidateKeys = new LinkedHashSet<>();
+    for (double[] box : getBoundingBoxes(latitude, longitude, radius)) {
+      List<Key> gridKeys = landmarkGridIndex.findWithin(box[0], box[1], box[2], box[3]);
+      if (gridKeys == null) {
+        candidateKeys.addAll(queryGeohashCells(box));
+      } else {
+        candidateKeys.addAll(gridKeys);
+      }
+    }
+
+    List<Entity> nearbyEntities = new ArrayList<>();
+    Map<Key, Double> distances = new HashMap<>();
+    for (Entity commentEntity : datastore.get(candidateKeys).values()) {
+      // A comment with several landmarks is as near as its nearest landmark.
+      double distance = Double.POSITIVE_INFINITY;
+      for (GeoPt landmarkGeoPt : CommentEntities.<GeoPt>getValues(commentEntity, "landmarkGeoPt")) {
+        distance =
+            Math.min(
+                distance,
+                getDistanceMeters(
+                    latitude,
+                    longitude,
+                    landmarkGeoPt.getLatitude(),
+                    landmarkGeoPt.getLongitude()));
+      }
+      if (distance <= radius) {
+        nearbyEntities.add(commentEntity);
+        distances.put(commentEntity.getKey(), distance);
+      }
+    }
+    nearbyEntities.sort(
+        Comparator.comparing(commentEntity -> distances.get(commentEntity.getKey())));
+
+    List<Comment> comments = new ArrayList<>();
+    for (Entity commentEntity : nearbyEntities) {
+      if (comments.size() == MAX_RESULTS) {
+        break;
+      }
+      comments.add(CommentEntities.toComment(commentEntity));
+    }
+
+    response.setContentType("application/json;charset=UTF-8");
+    response
+        .getWriter()
+        .println(JsonAdapters.GSON.toJson(Collections.singletonMap("comments", comments)));
+  }
+
+  /**
+   * Returns the bounding boxes of a circle as {south, west, north, east} arrays, split in two where
+   * the circle crosses the antimeridian.
+   */
+  private static List<double[]> getBoundingBoxes(double latitude, double longitude, double radius) {
+    double latitudeDelta = radius / METERS_PER_DEGREE;
+    double south = Math.max(-90, latitude - latitudeDelta);
+    double north = Math.min(90, latitude + latitudeDelta);
+    double cosLatitude = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+    double longitudeDelta = cosLatitude <= 0 ? 180 : latitudeDelta / cosLatitude;
+
+    List<double[]> boxes = new ArrayList<>();
+    if (longitudeDelta >= 180) {
+      boxes.add(new double[] {south, -180, north, 180});
+    } else if (longitude - longitudeDelta < -180) {
+      boxes.add(new double[] {south, longitude - longitudeDelta + 360, north, 180});
+      boxes.add(new double[] {south, -180, north, longitude + longitudeDelta});
+    } else if (longitude + longitudeDelta > 180) {
+      boxes.add(new double[] {south, longitude - longitudeDelta, north, 180});
+      boxes.add(new double[] {south, -180, north, longitude + longitudeDelta - 360});
+    } else {
+      boxes.add(
+          new double[] {south, longitude - longitudeDelta, north, longitude + longitudeDelta});
+    }
+    return boxes;
+  }
+
+  /**
+   * Reads the keys of the comments in the geohash cells covering a bounding box. Every query is
+   * started before the results of the first one are read, so that the queries run concurrently.
+   */
+  private static List<Key> queryGeohashCells(double[] box) {
+    List<Iterator<Entity>> cellResults = new ArrayList<>();
+    for (String cell : Geohash.cover(box[0], box[1], box[2], box[3], MAX_CELLS)) {
+      // "{" is the character following "z", the last character of the geohash alphabet.
+      Query query =
+          new Query("Comment")
+              .setKeysOnly()
+              .setFilter(
+                  CompositeFilterOperator.and(
+                      new FilterPredicate(
+                          "landmarkGeohash", FilterOperator.GREATER_THAN_OR_EQUAL, cell),
+                      new FilterPredicate(
+                          "landmarkGeohash", FilterOperator.LESS_THAN, cell + "{")));
+      cellResults.add(
+          datastore
+              .prepare(query)
+              .asIterator(FetchOptions.Builder.withLimit(MAX_COMMENTS_PER_CELL)));
+    }
+
+    List<Key> keys = new ArrayList<>();
+    for (Iterator<Entity> results : cellResults) {
+      while (results.hasNext()) {
+        keys.add(results.next().getKey());
+      }
+    }
+    return keys;
+  }
+
+  /** Returns the great-circle distance between two points, using the haversine formula. */
+  private static double getDistanceMeters(
+      double latitude1, double longitude1, double latitude2, double longitude2) {
+    double sinHalfLatitudeDelta = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+    double sinHalfLongitudeDelta = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+    double a =
+        sinHalfLatitudeDelta * sinHalfLatitudeDelta
+            + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2))
+                * sinHalfLongitudeDelta
+                * sinHalfLongitudeDelta;
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+}
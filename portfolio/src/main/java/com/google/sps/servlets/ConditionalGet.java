@@ -0,0 +1,48 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import javax.servlet.http.HttpServletRequest;
+
+/** Helpers for answering conditional GET requests with 304 Not Modified. */
+final class ConditionalGet {
+
+  private ConditionalGet() {}
+
+  /**
+   * Checks whether the client already has the current version of a response.
+   *
+   * @param request The {@code HttpServletRequest} for the GET request.
+   * @param eTag The quoted entity tag of the current version of the response.
+   * @return True if the If-None-Match header of the request lists {@code eTag} (weak tags are
+   *     compared by their opaque value) or is "*".
+   */
+  static boolean matchesIfNoneMatch(HttpServletRequest request, String eTag) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -14,15 +14,17 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.sps.cache.CommentFeedCache;
+import com.google.sps.cache.CommentThreadVersion;
+import com.google.sps.comments.CommentFeedSnapshot;
+import com.google.sps.comments.CommentPurger;
+import com.google.sps.geo.LandmarkGridIndex;
+import com.google.sps.landmarks.LandmarkCounter;
+import com.google.sps.search.CommentSearchIndex;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.URLEncoder;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -32,27 +34,84 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/delete-comments")
 @SuppressWarnings("serial")
 public class DeleteCommentsServlet extends HttpServlet {
-  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  /** Time after which a request stops starting new batches and redirects to resume the purge. */
+  private static final long MAX_REQUEST_MILLIS =
+      Long.getLong("sps.commentPurge.maxRequestMillis", 20_000L);
+
+  private CommentPurger commentPurger;
+
+  private CommentFeedCache commentFeedCache;
+
+  private CommentThreadVersion commentThreadVersion;
+
+  private CommentFeedSnapshot commentFeedSnapshot;
+
+  private LandmarkGridIndex landmarkGridIndex;
+
+  private LandmarkCounter landmarkCounter;
+
+  private CommentSearchIndex commentSearchIndex;
+
+  @Override
+  public void init() throws ServletException {
+    commentPurger = PortfolioContextListener.getComponent(getServletContext(), CommentPurger.class);
+    commentFeedCache =
+        PortfolioContextListener.getComponent(getServletContext(), CommentFeedCache.class);
+    commentThreadVersion =
+        PortfolioContextListener.getComponent(getServletContext(), CommentThreadVersion.class);
+    commentFeedSnapshot =
+        PortfolioContextListener.getComponent(getServletContext(), CommentFeedSnapshot.class);
+    landmarkGridIndex =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkGridIndex.class);
+    landmarkCounter =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkCounter.class);
+    commentSearchIndex =
+        PortfolioContextListener.getComponent(getServletContext(), CommentSearchIndex.class);
+  }
 
   /**
    * {@inheritDoc}
    *
    * <p>This Method handles POST requests corresponding to deleting all Comment kind Entities from
-   * the Google Cloud Datastore.
+   * the Google Cloud Datastore, along with their images in the Blobstore (see {@link
+   * CommentPurger}).
    *
-   * <p>The POST request also results in a re-direct back to the original server-dev page.
+   * <p>A request deletes comments for at most MAX_REQUEST_MILLIS. If comments remain, the response
+   * is a 307 redirect back to /delete-comments with the 'cursor' query string parameter set, so
+   * that the browser repeats the POST and the purge resumes where it stopped. Once every comment is
+   * deleted, the landmark counters and the search index are reset and the POST request results in
+   * a re-direct back to the original server-dev page.
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query("Comment");
-    PreparedQuery results = datastore.prepare(query);
-
-    List<Key> entityKeys = new ArrayList<>();
-    for (Entity commentEntity : results.asIterable()) {
-      entityKeys.add(commentEntity.getKey());
+    Cursor startCursor = null;
+    String startCursorString = request.getParameter("cursor");
+    if (startCursorString != null && !startCursorString.isEmpty()) {
+      try {
+        startCursor = Cursor.fromWebSafeString(startCursorString);
+      } catch (IllegalArgumentException e) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+        return;
+      }
     }
-    datastore.delete(entityKeys);
 
+    CommentPurger.Progress progress =
+        commentPurger.purge(startCursor, System.currentTimeMillis() + MAX_REQUEST_MILLIS);
+    commentThreadVersion.recordDeletedComments(progress.getNumCommentsDeleted());
+    commentFeedSnapshot.clear();
+    commentFeedCache.invalidate();
+    landmarkGridIndex.clear();
+
+    Cursor nextCursor = progress.getNextCursor();
+    if (nextCursor != null) {
+      response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+      response.setHeader(
+          "Location",
+          "/delete-comments?cursor=" + URLEncoder.encode(nextCursor.toWebSafeString(), "UTF-8"));
+      return;
+    }
+    landmarkCounter.clear();
+    commentSearchIndex.clear();
     response.sendRedirect("/pages/server-dev.html");
   }
 }
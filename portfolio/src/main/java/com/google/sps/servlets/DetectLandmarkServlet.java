@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.landmarks.LandmarkEnricher;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that runs the landmark detection tasks enqueued by NewCommentServlet. */
+@WebServlet("/tasks/detect-landmark")
+@SuppressWarnings("serial")
+public class DetectLandmarkServlet extends HttpServlet {
+  /** Number of retries after which a failing task is recorded as FAILED instead of retried. */
+  private static final int MAX_RETRIES = Integer.getInteger("sps.landmarkTask.maxRetries", 5);
+
+  private LandmarkEnricher landmarkEnricher;
+
+  @Override
+  public void init() throws ServletException {
+    landmarkEnricher =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkEnricher.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles POST requests from the landmark-detection push queue. It detects the
+   * landmarks in the images given by the repeated 'blob-key' parameter and stores them in the
+   * comment given by the 'comment-key' parameter.
+   *
+   * <p>If detection fails, an error status is returned so that the queue retries the task with
+   * the backoff configured in queue.xml. Once the task has been retried MAX_RETRIES times, the
+   * comment is marked as FAILED and the task is dropped.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from a task queue.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    Key commentKey = KeyFactory.stringToKey(request.getParameter("comment-key"));
+    List<BlobKey> blobKeys = new ArrayList<>();
+    for (String blobKeyString : request.getParameterValues("blob-key")) {
+      blobKeys.add(new BlobKey(blobKeyString));
+    }
+    int retryCount = getRetryCount(request);
+
+    try {
+      landmarkEnricher.enrich(commentKey, blobKeys);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Error: Landmark detection failed (retry " + retryCount + "): " + e);
+      if (retryCount >= MAX_RETRIES) {
+        landmarkEnricher.markFailed(commentKey);
+        return;
+      }
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  /**
+   * Returns the number of times the current task has been retried by the push queue.
+   *
+   * @param request The {@code HttpServletRequest} for the task.
+   * @return The value of the X-AppEngine-TaskRetryCount header (0 if it is missing).
+   */
+  private int getRetryCount(HttpServletRequest request) {
+    String retryCount = request.getHeader("X-AppEngine-TaskRetryCount");
+    return retryCount == null ? 0 : Integer.parseInt(retryCount);
+  }
+}
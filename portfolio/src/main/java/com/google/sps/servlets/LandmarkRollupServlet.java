@@ -0,0 +1,53 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.landmarks.LandmarkCounter;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that rolls the landmark counter shards up into totals, run by cron.xml. */
+@WebServlet("/tasks/landmark-rollup")
+@SuppressWarnings("serial")
+public class LandmarkRollupServlet extends HttpServlet {
+  private LandmarkCounter landmarkCounter;
+
+  @Override
+  public void init() throws ServletException {
+    landmarkCounter =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkCounter.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles the GET requests of the landmark roll-up cron job. It sums the shards of
+   * every landmark counter and stores the totals read by /landmark-stats.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from the cron service.
+    if (request.getHeader("X-Appengine-Cron") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    landmarkCounter.rollUp();
+  }
+}
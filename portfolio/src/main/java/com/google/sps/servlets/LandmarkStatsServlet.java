@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.json.JsonAdapters;
+import com.google.sps.landmarks.LandmarkCounter;
+import java.io.IOException;
+import java.util.Collections;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the landmarks shown in the images of the most comments. */
+@WebServlet("/landmark-stats")
+@SuppressWarnings("serial")
+public class LandmarkStatsServlet extends HttpServlet {
+  /** The number of landmarks returned when the request does not specify 'k'. */
+  private static final int DEFAULT_K = 10;
+
+  /** The largest number of landmarks a client may request. */
+  private static final int MAX_K = 100;
+
+  private LandmarkCounter landmarkCounter;
+
+  @Override
+  public void init() throws ServletException {
+    landmarkCounter =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkCounter.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles GET requests for the top landmarks. The optional 'k' query string
+   * parameter sets the number of landmarks returned. The response is a JSON object of the form
+   * {@code {"landmarks": [{"name": "...", "count": 3}, ...]}}, largest count first. The counts are
+   * the totals of the {@link LandmarkCounter}, read with a sorted query of k entities, so the cost
+   * of a request depends on k rather than on the number of comments or landmarks. The totals are
+   * rolled up from the counter shards by a cron job every minute, so they may be a minute old.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    int k = DEFAULT_K;
+    String kString = request.getParameter("k");
+    if (kString != null && !kString.isEmpty()) {
+      try {
+        k = Integer.parseInt(kString);
+      } catch (NumberFormatException e) {
+        k = 0;
+      }
+      if (k < 1 || k > MAX_K) {
+        response.sendError(
+            HttpServletResponse.SC_BAD_REQUEST, "k must be between 1 and " + MAX_K + ".");
+        return;
+      }
+    }
+
+    response.setContentType("application/json;charset=UTF-8");
+    response
+        .getWriter()
+        .println(
+            JsonAdapters.GSON.toJson(
+                Collections.singletonMap("landmarks", landmarkCounter.getTopLandmarks(k))));
+  }
+}
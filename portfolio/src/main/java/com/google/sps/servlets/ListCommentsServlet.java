@@ -14,20 +14,27 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.GeoPt;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.gson.Gson;
-import com.google.sps.data.Comment;
-import com.google.sps.data.Landmark;
+import com.google.sps.cache.CommentFeedCache;
+import com.google.sps.cache.CommentThreadVersion;
+import com.google.sps.comments.CommentEntities;
+import com.google.sps.comments.CommentFeedSnapshot;
+import com.google.sps.comments.CommentPageFormat;
+import com.google.sps.comments.FeedPosition;
+import com.google.sps.metrics.LatencyHistogram;
+import com.google.sps.metrics.MetricRegistry;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -37,50 +44,291 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/comment-data")
 @SuppressWarnings("serial")
 public class ListCommentsServlet extends HttpServlet {
+  /** The number of comments returned when the request does not specify a page size. */
+  private static final int DEFAULT_PAGE_SIZE = 20;
+
+  /** The largest page size a client may request (matches the limit of the num-comments form). */
+  private static final int MAX_PAGE_SIZE = 100;
+
+  private static final int GZIP_BUFFER_SIZE = 8192;
+
   private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
 
+  private CommentFeedCache commentFeedCache;
+
+  private CommentThreadVersion commentThreadVersion;
+
+  private CommentFeedSnapshot commentFeedSnapshot;
+
+  /** Time spent reading the comments of a queried page, without serializing them. */
+  private LatencyHistogram queryLatency;
+
+  /** Time spent serializing the comments of a queried page. */
+  private LatencyHistogram serializeLatency;
+
+  @Override
+  public void init() throws ServletException {
+    commentFeedCache =
+        PortfolioContextListener.getComponent(getServletContext(), CommentFeedCache.class);
+    commentThreadVersion =
+        PortfolioContextListener.getComponent(getServletContext(), CommentThreadVersion.class);
+    commentFeedSnapshot =
+        PortfolioContextListener.getComponent(getServletContext(), CommentFeedSnapshot.class);
+    MetricRegistry metricRegistry =
+        PortfolioContextListener.getComponent(getServletContext(), MetricRegistry.class);
+    queryLatency = metricRegistry.getHistogram("commentPage.query");
+    serializeLatency = metricRegistry.getHistogram("commentPage.serialize");
+  }
+
   /**
    * {@inheritDoc}
    *
-   * <p>This Method handles GET requests in order to display all of the comments that are stored in
-   * the Comments kind of the Google Cloud Datastore.
+   * <p>This Method handles GET requests in order to display one page of the comments that are
+   * stored in the Comments kind of the Google Cloud Datastore, newest first.
+   *
+   * <p>The page is selected with the optional 'cursor' and 'page-size' query string parameters.
+   * The response is a JSON object of the form {@code {"comments": [...], "nextCursor": "..."}},
+   * where 'nextCursor' is the continuation token to pass back for the following page (null once
+   * the end of the thread is reached). The token holds the {@link FeedPosition} of the last comment
+   * of the page, so the following page starts right after that comment.
+   *
+   * <p>Clients that accept application/x-protobuf receive the page in the compact {@link
+   * CommentPageFormat#PROTOBUF} encoding instead, and the page is gzip-compressed for clients that
+   * accept it.
+   *
+   * <p>Pages made of the newest comments are copied from the serialized {@link
+   * CommentFeedSnapshot}, with a single entity lookup. Older pages are queried, and are kept in the
+   * shared {@link CommentFeedCache} so that repeated reads of the same page, on any instance, do
+   * not query the Datastore until a comment is created, updated or deleted. Concurrent reads of a
+   * page that is not cached wait for a single query.
+   *
+   * <p>Every response carries an ETag and a Last-Modified header derived from the {@link
+   * CommentThreadVersion} stamp. A client that revalidates with a matching If-None-Match (or,
+   * without one, a current If-Modified-Since) gets a 304 Not Modified response, which is decided
+   * by a single entity lookup before any comment is queried or serialized.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Query query = new Query("Comment").addSort("timestamp", SortDirection.DESCENDING);
-    PreparedQuery results = datastore.prepare(query);
-
-    List<Comment> commentsThread = new ArrayList<>();
-    for (Entity commentEntity : results.asIterable()) {
-      Landmark landmark = null;
-      if (commentEntity.getProperty("landmarkName") != null) {
-        landmark =
-            new Landmark(
-                (String) commentEntity.getProperty("landmarkName"),
-                ((GeoPt) commentEntity.getProperty("landmarkGeoPt")).getLatitude(),
-                ((GeoPt) commentEntity.getProperty("landmarkGeoPt")).getLongitude());
+    int pageSize = getPageSize(request);
+
+    String startCursor = request.getParameter("cursor");
+    boolean hasCursor = startCursor != null && !startCursor.isEmpty();
+    FeedPosition startPosition = hasCursor ? FeedPosition.parseToken(startCursor) : null;
+    if (hasCursor && startPosition == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
+
+    CommentPageFormat format = CommentPageFormat.negotiate(request.getHeader("Accept"));
+    boolean gzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+
+    CommentThreadVersion.Stamp stamp = commentThreadVersion.get();
+    String eTag = getRepresentationETag(stamp.toETag(), format, gzip);
+    response.setHeader("ETag", eTag);
+    response.setDateHeader("Last-Modified", stamp.getUpdatedAt());
+    response.setHeader("Cache-Control", "no-cache");
+    response.setHeader("Vary", "Accept, Accept-Encoding");
+    if (isNotModified(request, eTag, stamp.getUpdatedAt())) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.setContentType(format.getContentType());
+    OutputStream out = response.getOutputStream();
+    if (gzip) {
+      response.setHeader("Content-Encoding", "gzip");
+      out = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+    }
+
+    CommentFeedSnapshot.Contents snapshot = commentFeedSnapshot.get(stamp.getRevision());
+    if (!writeSnapshotPage(out, format, snapshot, startPosition, pageSize)) {
+      String pageKey =
+          CommentFeedCache.pageKey(stamp.getRevision(), format.name(), startCursor, pageSize);
+      byte[] page =
+          commentFeedCache.get(
+              pageKey,
+              () -> {
+                ByteArrayOutputStream pageBuffer = new ByteArrayOutputStream();
+                writeCommentsPage(pageBuffer, format, startPosition, pageSize);
+                return pageBuffer.toByteArray();
+              });
+      out.write(page);
+    }
+
+    if (gzip) {
+      ((GZIPOutputStream) out).finish();
+    }
+  }
+
+  /**
+   * Writes a page of comments straight from the pre-encoded bytes of the feed snapshot, if the
+   * snapshot holds the whole page.
+   *
+   * @param out The stream the page is written to.
+   * @param format The wire format of the page.
+   * @param snapshot The current feed snapshot.
+   * @param startPosition The position the page starts after (null for the first page).
+   * @param pageSize The number of comments requested for the page.
+   * @return True if the page was written, false if it must be queried instead.
+   * @throws IOException - If an output error occurs when writing to {@code out}.
+   */
+  private boolean writeSnapshotPage(
+      OutputStream out,
+      CommentPageFormat format,
+      CommentFeedSnapshot.Contents snapshot,
+      FeedPosition startPosition,
+      int pageSize)
+      throws IOException {
+    int from = startPosition == null ? 0 : snapshot.indexAfter(startPosition);
+    int to = Math.min(from + pageSize, snapshot.size());
+    if (to - from < pageSize && !snapshot.isComplete()) {
+      return false;
+    }
+
+    // A short page, or a page that ends the complete snapshot, has no next page to point to.
+    String nextCursor = null;
+    if (to - from == pageSize && (to < snapshot.size() || !snapshot.isComplete())) {
+      nextCursor = snapshot.getPosition(to - 1).toToken();
+    }
+
+    snapshot.writePage(out, format, from, to, nextCursor);
+    return true;
+  }
+
+  /**
+   * Queries one page of comments and writes it, one comment at a time, so that no list of Comment
+   * objects is built for the page.
+   *
+   * @param out The stream the page is written to.
+   * @param format The wire format of the page.
+   * @param startPosition The position the page starts after (null for the first page).
+   * @param pageSize The number of comments requested for the page.
+   * @throws IOException - If an output error occurs when writing to {@code out}.
+   */
+  private void writeCommentsPage(
+      OutputStream out, CommentPageFormat format, FeedPosition startPosition, int pageSize)
+      throws IOException {
+    Query query =
+        new Query("Comment")
+            .addSort("timestamp", SortDirection.DESCENDING)
+            .addSort(Entity.KEY_RESERVED_PROPERTY, SortDirection.ASCENDING);
+    if (startPosition != null) {
+      query.setFilter(
+          new FilterPredicate(
+              "timestamp", FilterOperator.LESS_THAN_OR_EQUAL, startPosition.getTimestamp()));
+    }
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(pageSize);
+
+    long pageStart = System.nanoTime();
+    long serializeNanos = 0;
+    format.writePrefix(out);
+    int numComments = 0;
+    FeedPosition lastPosition = null;
+    for (Entity commentEntity : datastore.prepare(query).asIterable(fetchOptions)) {
+      FeedPosition position = FeedPosition.of(commentEntity);
+      // Comments with the same timestamp as the start position may belong to the previous page.
+      if (startPosition != null && !startPosition.isBefore(position)) {
+        continue;
+      }
+      if (numComments > 0) {
+        format.writeSeparator(out);
+      }
+      long serializeStart = System.nanoTime();
+      out.write(format.encodeComment(CommentEntities.toComment(commentEntity)));
+      serializeNanos += System.nanoTime() - serializeStart;
+      lastPosition = position;
+      if (++numComments == pageSize) {
+        break;
+      }
+    }
+
+    // A short page means there are no more comments, so there is no next page to point to.
+    format.writeSuffix(out, numComments == pageSize ? lastPosition.toToken() : null);
+    // Results are fetched in batches while the page is iterated, so the rest is query time.
+    serializeLatency.record(serializeNanos);
+    queryLatency.record(System.nanoTime() - pageStart - serializeNanos);
+  }
+
+  /**
+   * Checks whether a client accepts gzip-compressed responses.
+   *
+   * @param acceptEncodingHeader The value of the Accept-Encoding request header (null if there is
+   *     none).
+   * @return True if the header lists gzip without a zero quality value.
+   */
+  private static boolean acceptsGzip(String acceptEncodingHeader) {
+    if (acceptEncodingHeader == null) {
+      return false;
+    }
+
+    for (String coding : acceptEncodingHeader.split(",")) {
+      String[] parts = coding.split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
       }
-      commentsThread.add(
-          new Comment(
-              (String) commentEntity.getProperty("text"),
-              (BlobKey) commentEntity.getProperty("blobKey"),
-              landmark));
     }
+    return false;
+  }
 
-    String jsonComments = convertToJson(commentsThread);
-    response.setContentType("application/json;");
-    response.getWriter().println(jsonComments);
+  /**
+   * Derives the entity tag of one representation of the thread, so that the JSON, protobuf and
+   * compressed responses of the same version have distinct tags.
+   *
+   * @param threadETag The quoted entity tag of the thread version.
+   * @param format The wire format of the response.
+   * @param gzip Whether the response is gzip-compressed.
+   * @return The quoted entity tag of the response.
+   */
+  private static String getRepresentationETag(
+      String threadETag, CommentPageFormat format, boolean gzip) {
+    String suffix =
+        (format == CommentPageFormat.JSON ? "" : "-" + format.name().toLowerCase())
+            + (gzip ? "-gzip" : "");
+    return threadETag.substring(0, threadETag.length() - 1) + suffix + "\"";
   }
 
   /**
-   * Converts a list of Comment objects to a JSON string.
+   * Checks whether the client already holds the current version of the comment thread.
    *
-   * @param commentsThread The List of Comment objects that should be converted to a JSON string.
-   * @return The JSON string corresponding to the list of comments.
+   * @param request The {@code HttpServletRequest} for the GET request.
+   * @param eTag The entity tag of the current version of the thread.
+   * @param lastModified The time in milliseconds at which the thread last changed.
+   * @return True if If-None-Match matches {@code eTag}, or if there is no If-None-Match header and
+   *     If-Modified-Since is not older than {@code lastModified}.
    */
-  private String convertToJson(List<Comment> commentsThread) {
-    Gson gson = new Gson();
-    String json = gson.toJson(commentsThread);
-    return json;
+  private boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+    if (request.getHeader("If-None-Match") != null) {
+      return ConditionalGet.matchesIfNoneMatch(request, eTag);
+    }
+
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // HTTP dates only have a precision of one second.
+    return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * Reads the requested page size from the 'page-size' query string parameter.
+   *
+   * @param request The {@code HttpServletRequest} for the GET request.
+   * @return The requested page size clamped to [1, MAX_PAGE_SIZE], or DEFAULT_PAGE_SIZE if the
+   *     parameter is missing or is not a number.
+   */
+  private int getPageSize(HttpServletRequest request) {
+    String pageSizeString = request.getParameter("page-size");
+    if (pageSizeString == null) {
+      return DEFAULT_PAGE_SIZE;
+    }
+
+    try {
+      int pageSize = Integer.parseInt(pageSizeString);
+      return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    } catch (NumberFormatException e) {
+      return DEFAULT_PAGE_SIZE;
+    }
   }
 }
@@ -0,0 +1,52 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.metrics.MetricRegistry;
+import com.google.sps.metrics.PrometheusFormat;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the metrics of this instance in the Prometheus text format. */
+@WebServlet("/metrics")
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+  private MetricRegistry metricRegistry;
+
+  @Override
+  public void init() throws ServletException {
+    metricRegistry =
+        PortfolioContextListener.getComponent(getServletContext(), MetricRegistry.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles GET requests for /metrics. The response holds the latency histograms of
+   * requests and of the operations they make (blob fetches, Vision API calls, Datastore puts and
+   * queries, serialization), the histograms of bytes allocated by requests and the error counters
+   * of requests, as recorded since this instance started.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType(PrometheusFormat.CONTENT_TYPE);
+    response.setHeader("Cache-Control", "no-cache");
+    PrometheusFormat.write(metricRegistry, response.getWriter());
+  }
+}
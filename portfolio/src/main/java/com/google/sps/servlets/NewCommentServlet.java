@@ -15,28 +15,28 @@
 package com.google.sps.servlets;
 
 import com.google.appengine.api.blobstore.BlobInfo;
-import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.GeoPt;
-import com.google.cloud.vision.v1.AnnotateImageRequest;
-import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
-import com.google.cloud.vision.v1.EntityAnnotation;
-import com.google.cloud.vision.v1.Feature;
-import com.google.cloud.vision.v1.Image;
-import com.google.cloud.vision.v1.ImageAnnotatorClient;
-import com.google.protobuf.ByteString;
-import com.google.type.LatLng;
-import java.io.ByteArrayOutputStream;
+import com.google.appengine.api.datastore.Key;
+import com.google.sps.blobs.BlobInfoCache;
+import com.google.sps.comments.CommentEntities;
+import com.google.sps.comments.CommentWriter;
+import com.google.sps.concurrent.ParallelMapper;
+import com.google.sps.data.LandmarkState;
+import com.google.sps.images.ImageValidator;
+import com.google.sps.landmarks.LandmarkTaskQueue;
+import com.google.sps.metrics.LatencyHistogram;
+import com.google.sps.metrics.MetricRegistry;
+import com.google.sps.search.CommentSearchIndex;
+import com.google.sps.stream.CommentStreamHub;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -46,9 +46,51 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/new-comment")
 @SuppressWarnings("serial")
 public class NewCommentServlet extends HttpServlet {
-  private static DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  /** The largest number of images stored with one comment; further uploads are deleted. */
+  private static final int MAX_IMAGES_PER_COMMENT =
+      Integer.getInteger("sps.newComment.maxImages", 10);
+
   private static BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
 
+  private CommentWriter commentWriter;
+
+  private LandmarkTaskQueue landmarkTaskQueue;
+
+  private ImageValidator imageValidator;
+
+  private ParallelMapper imageMapper;
+
+  private CommentSearchIndex commentSearchIndex;
+
+  private BlobInfoCache blobInfoCache;
+
+  private CommentStreamHub commentStreamHub;
+
+  /** Time spent waiting for the comment to be stored. */
+  private LatencyHistogram putLatency;
+
+  /** Time spent handling the whole POST request. */
+  private LatencyHistogram requestLatency;
+
+  @Override
+  public void init() throws ServletException {
+    commentWriter = PortfolioContextListener.getComponent(getServletContext(), CommentWriter.class);
+    landmarkTaskQueue =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkTaskQueue.class);
+    imageValidator =
+        PortfolioContextListener.getComponent(getServletContext(), ImageValidator.class);
+    imageMapper = PortfolioContextListener.getComponent(getServletContext(), ParallelMapper.class);
+    commentSearchIndex =
+        PortfolioContextListener.getComponent(getServletContext(), CommentSearchIndex.class);
+    blobInfoCache = PortfolioContextListener.getComponent(getServletContext(), BlobInfoCache.class);
+    commentStreamHub =
+        PortfolioContextListener.getComponent(getServletContext(), CommentStreamHub.class);
+    MetricRegistry metricRegistry =
+        PortfolioContextListener.getComponent(getServletContext(), MetricRegistry.class);
+    putLatency = metricRegistry.getHistogram("newComment.put");
+    requestLatency = metricRegistry.getHistogram("newComment.request");
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -57,150 +99,112 @@ public class NewCommentServlet extends HttpServlet {
    *
    * <p>This POST request originates from the 'new comment' form in server-dev.html and is initially
    * sent to Blobstore for file processing. Once the Blobstore forward the request to this servlet,
-   * the name of file submitted in the form can be used to get the corresponding blob key to be
-   * stored in the Datastore Blobstore. The POST request also results in a re-direct back to the
-   * original server-dev page.
+   * the name of the file input submitted in the form can be used to get the blob keys of the
+   * uploaded images, which are stored in the multi-valued 'blobKey' property of the comment. The
+   * POST request also results in a re-direct back to the original server-dev page.
+   *
+   * <p>If images are uploaded, the comment is stored with a PENDING landmark state and landmark
+   * detection for all of its images is handed to the landmark task queue as one task, which
+   * patches the landmark names and geo points into the comment later. This keeps the Vision API
+   * round trips out of the POST latency. If there is no image uploaded, the blob keys, landmark
+   * names, geo points and state uploaded to the Datastore will be null.
    *
-   * <p>If there is no image uploaded or there is no landmark in the image, the landmark name and
-   * geo point uploaded to the Datastore will be null.
+   * <p>The comment is stored through the shared {@link CommentWriter}, which groups comments
+   * submitted at the same time into one Datastore put. The redirect is sent once the put has been
+   * acknowledged and the words of the comment have been added to the {@link CommentSearchIndex}.
+   * The stored comment is then pushed to the clients of /comment-stream.
    *
    * <p>TODO(Issue #15): Do verfification on a new comment before adding it to the comments list.
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long requestStart = System.nanoTime();
     String newComment = request.getParameter("comment");
     long timestamp = System.currentTimeMillis();
-    BlobKey blobKey = getBlobKey(request, "image");
-    String landmarkName = null;
-    GeoPt landmarkGeoPt = null;
-
-    if (blobKey != null) {
-      byte[] blobBytes = getBlobBytes(blobKey);
-      List<EntityAnnotation> landmarkInfoList = getLandmarkInfo(blobBytes);
-
-      if (landmarkInfoList != null && !landmarkInfoList.isEmpty()) {
-        EntityAnnotation landmarkInfo = landmarkInfoList.get(0);
-        landmarkName = landmarkInfo.getDescription();
-        LatLng landmarkLatLng = landmarkInfo.getLocationsList().listIterator().next().getLatLng();
-        landmarkGeoPt =
-            new GeoPt((float) landmarkLatLng.getLatitude(), (float) landmarkLatLng.getLongitude());
-      }
-    }
+    List<BlobKey> blobKeys = getBlobKeys(request, "image");
 
     Entity taskEntity = new Entity("Comment");
     taskEntity.setProperty("text", newComment);
     taskEntity.setProperty("timestamp", timestamp);
-    taskEntity.setProperty("blobKey", blobKey);
-    taskEntity.setProperty("landmarkName", landmarkName);
-    taskEntity.setProperty("landmarkGeoPt", landmarkGeoPt);
-
-    datastore.put(taskEntity);
+    // An empty list is stored as null, which keeps the 'blobKey' index entry CommentPurger needs.
+    taskEntity.setProperty("blobKey", blobKeys);
+    taskEntity.setProperty("landmarkName", null);
+    taskEntity.setProperty("landmarkGeoPt", null);
+    taskEntity.setProperty(
+        "landmarkState", blobKeys.isEmpty() ? null : LandmarkState.PENDING.name());
+
+    long putStart = System.nanoTime();
+    Key commentKey = commentWriter.write(taskEntity);
+    putLatency.record(System.nanoTime() - putStart);
+    commentSearchIndex.index(commentKey, timestamp, Collections.singletonList(newComment));
+    commentStreamHub.publish(CommentEntities.toComment(taskEntity));
+
+    if (!blobKeys.isEmpty()) {
+      landmarkTaskQueue.enqueue(commentKey, blobKeys);
+    }
 
     response.sendRedirect("/pages/server-dev.html");
+    requestLatency.record(System.nanoTime() - requestStart);
   }
 
   /**
-   * Returns a BlobKey object corresponding to the uploaded file.
+   * Returns the BlobKey objects corresponding to the uploaded files.
+   *
+   * <p>The size of every file is read from the upload information the Blobstore attaches to the
+   * forwarded request. Every non-empty file is then checked by the {@link ImageValidator}, which
+   * sniffs the format and dimensions from the first few kilobytes of the file rather than trusting
+   * the content type sent by the browser. The files are checked in parallel, so the checks take as
+   * long as the slowest one. Empty files, files that are not valid images of acceptable dimensions
+   * and files beyond MAX_IMAGES_PER_COMMENT are deleted with a single Blobstore call, before any of
+   * them is read in full.
    *
    * @param request The {@code HttpServletRequest} for the POST request.
    * @param formInputElementName The name attribute of the image file input to the form.
-   * @return The blob key associated with the uploaded image file. Null is returned if the user did
-   *     not select a file or the file is not an image type.
+   * @return The blob keys associated with the uploaded image files, in upload order. The list is
+   *     empty if the user did not select a file or no file is an image type.
    */
-  private BlobKey getBlobKey(HttpServletRequest request, String formInputElementName) {
-    Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
-    List<BlobKey> blobKeys = blobs.get(formInputElementName);
+  private List<BlobKey> getBlobKeys(HttpServletRequest request, String formInputElementName)
+      throws IOException {
+    Map<String, List<BlobInfo>> blobs = blobstoreService.getBlobInfos(request);
+    List<BlobInfo> blobInfos = blobs.get(formInputElementName);
+    List<BlobKey> blobKeys = new ArrayList<>();
 
     // User submitted form without selecting a file, so we can't get a URL. (dev server)
-    if (blobKeys == null || blobKeys.isEmpty()) {
-      return null;
+    if (blobInfos == null) {
+      return blobKeys;
     }
 
-    // Our form only contains a single file input, so get the first index.
-    BlobKey blobKey = blobKeys.get(0);
-
-    // User submitted form without selecting a file, so we can't get a URL. (live server)
-    BlobInfo blobInfo = new BlobInfoFactory().loadBlobInfo(blobKey);
-    if (blobInfo.getSize() == 0) {
-      blobstoreService.delete(blobKey);
-      return null;
-    }
-
-    // Non-image files are not supported.
-    if (blobInfo.getContentType().startsWith("image") == false) {
-      blobstoreService.delete(blobKey);
-      return null;
+    List<BlobKey> rejectedBlobKeys = new ArrayList<>();
+    List<BlobInfo> candidates = new ArrayList<>();
+    for (BlobInfo blobInfo : blobInfos) {
+      // An empty file means the user submitted the form without selecting a file. (live server)
+      if (blobInfo.getSize() == 0 || candidates.size() == MAX_IMAGES_PER_COMMENT) {
+        rejectedBlobKeys.add(blobInfo.getBlobKey());
+      } else {
+        candidates.add(blobInfo);
+      }
     }
 
-    return blobKey;
-  }
-
-  /**
-   * Blobstore stores files as binary data. This function retrieves the binary data stored at the
-   * BlobKey parameter.
-   *
-   * @param blobKey The key associated with the image whose binary data is retrieved.
-   * @return An byte array containing the binary data of the image associated with the blobKey.
-   * @throws IOException - If an output error occurs when writing bytes from the temp blobstore
-   *     buffer {@code b} to the output byte array {@code outputBytes}.
-   */
-  private byte[] getBlobBytes(BlobKey blobKey) throws IOException {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
-
-    long currentByteIndex = 0;
-    boolean continueReading = true;
-    while (continueReading) {
-      // end index is inclusive, so we have to subtract 1 to get MAX_BLOB_FETCH_SIZE bytes
-      byte[] blobSegmentBytes =
-          blobstoreService.fetchData(
-              blobKey,
-              currentByteIndex,
-              currentByteIndex + BlobstoreService.MAX_BLOB_FETCH_SIZE - 1);
-      outputBytes.write(blobSegmentBytes);
-
-      // if we read fewer bytes than we requested, then we reached the end
-      if (blobSegmentBytes.length < BlobstoreService.MAX_BLOB_FETCH_SIZE) {
-        continueReading = false;
+    List<ImageValidator.Result> results = imageMapper.map(candidates, imageValidator::validate);
+    for (int i = 0; i < candidates.size(); i++) {
+      BlobKey blobKey = candidates.get(i).getBlobKey();
+      if (results.get(i).isValid()) {
+        blobKeys.add(blobKey);
+        // Saves the landmark task a metadata lookup when it reads the image.
+        blobInfoCache.put(candidates.get(i));
+      } else {
+        System.err.println(
+            "Error: Rejected upload "
+                + blobKey.getKeyString()
+                + ": "
+                + results.get(i).getRejectionReason());
+        rejectedBlobKeys.add(blobKey);
       }
-
-      currentByteIndex += BlobstoreService.MAX_BLOB_FETCH_SIZE;
     }
 
-    return outputBytes.toByteArray();
-  }
-
-  /**
-   * Uses the Google Cloud Vision API to generate location information for a landmark detected in
-   * the image represented by the binary data stored in imgBytes.
-   *
-   * @param imgBytes Binary data for the image that is being inspected for landmark detection.
-   * @return An landmark annotation object containing information such as name and coordinates for
-   *     the landmark detected in the image. Null if there are no landmarks detected or other errors
-   *     occur when obtaining the landmark information.
-   * @throws IOException - If an input or output error occurs when creating the {@code
-   *     ImageAnnotatorClient} object.
-   */
-  private List<EntityAnnotation> getLandmarkInfo(byte[] imgBytes) throws IOException {
-    ByteString byteString = ByteString.copyFrom(imgBytes);
-    Image image = Image.newBuilder().setContent(byteString).build();
-
-    Feature feature = Feature.newBuilder().setType(Feature.Type.LANDMARK_DETECTION).build();
-    AnnotateImageRequest request =
-        AnnotateImageRequest.newBuilder().addFeatures(feature).setImage(image).build();
-    List<AnnotateImageRequest> requests = new ArrayList<>();
-    requests.add(request);
-
-    ImageAnnotatorClient client = ImageAnnotatorClient.create();
-    BatchAnnotateImagesResponse batchResponse = client.batchAnnotateImages(requests);
-    client.close();
-
-    AnnotateImageResponse imageResponse = batchResponse.getResponsesList().get(0);
-    if (imageResponse.hasError()) {
-      System.err.println("Error: " + imageResponse.getError().getMessage());
-      return null;
+    if (!rejectedBlobKeys.isEmpty()) {
+      blobstoreService.delete(rejectedBlobKeys.toArray(new BlobKey[0]));
     }
-
-    return imageResponse.getLandmarkAnnotationsList();
+    return blobKeys;
   }
 }
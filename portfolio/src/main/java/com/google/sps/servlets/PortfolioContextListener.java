@@ -0,0 +1,290 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.blobs.BlobInfoCache;
+import com.google.sps.blobs.BlobReader;
+import com.google.sps.blobs.UploadUrlPool;
+import com.google.sps.cache.CommentFeedCache;
+import com.google.sps.cache.CommentThreadVersion;
+import com.google.sps.cache.InMemoryRemoteCache;
+import com.google.sps.cache.MemcacheRemoteCache;
+import com.google.sps.cache.RemoteCache;
+import com.google.sps.comments.CommentFeedSnapshot;
+import com.google.sps.comments.CommentPurger;
+import com.google.sps.comments.CommentWriter;
+import com.google.sps.concurrent.ParallelMapper;
+import com.google.sps.geo.LandmarkGridIndex;
+import com.google.sps.images.ImageDownscaler;
+import com.google.sps.images.ImageValidator;
+import com.google.sps.images.ImageVariantStore;
+import com.google.sps.landmarks.BatchingLandmarkAnnotator;
+import com.google.sps.landmarks.FakeLandmarkAnnotator;
+import com.google.sps.landmarks.LandmarkAnnotator;
+import com.google.sps.landmarks.LandmarkCache;
+import com.google.sps.landmarks.LandmarkCounter;
+import com.google.sps.landmarks.LandmarkEnricher;
+import com.google.sps.landmarks.LandmarkTaskQueue;
+import com.google.sps.landmarks.PushQueueLandmarkTaskQueue;
+import com.google.sps.landmarks.VisionClientHolder;
+import com.google.sps.landmarks.VisionLandmarkAnnotator;
+import com.google.sps.metrics.MetricRegistry;
+import com.google.sps.search.CommentSearchIndex;
+import com.google.sps.stream.CommentStreamHub;
+import java.io.IOException;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Creates the components that are shared by the servlets of the web app when the app starts and
+ * releases them when it shuts down. Each component is stored as a {@code ServletContext}
+ * attribute named after its class, and servlets look them up in {@code init()}.
+ *
+ * <p>Components are configured with the system properties set in appengine-web.xml.
+ */
+@WebListener
+public class PortfolioContextListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    ServletContext context = event.getServletContext();
+
+    MetricRegistry metricRegistry = new MetricRegistry();
+    context.setAttribute(MetricRegistry.class.getName(), metricRegistry);
+
+    // The in-memory stand-in is only shared by the caches of this instance.
+    RemoteCache remoteCache =
+        "memory".equals(System.getProperty("sps.remoteCache"))
+            ? new InMemoryRemoteCache()
+            : new MemcacheRemoteCache("sps");
+
+    CommentFeedCache commentFeedCache =
+        new CommentFeedCache(
+            remoteCache,
+            Integer.getInteger("sps.commentFeedCache.maxEntries", 64),
+            Long.getLong("sps.commentFeedCache.ttlMillis", 30_000L),
+            Long.getLong("sps.remoteCache.lockMillis", 2_000L));
+    context.setAttribute(CommentFeedCache.class.getName(), commentFeedCache);
+
+    CommentThreadVersion commentThreadVersion =
+        new CommentThreadVersion(DatastoreServiceFactory.getDatastoreService());
+    context.setAttribute(CommentThreadVersion.class.getName(), commentThreadVersion);
+
+    CommentFeedSnapshot commentFeedSnapshot =
+        new CommentFeedSnapshot(
+            DatastoreServiceFactory.getDatastoreService(),
+            Integer.getInteger("sps.commentFeedSnapshot.maxComments", 100));
+    context.setAttribute(CommentFeedSnapshot.class.getName(), commentFeedSnapshot);
+
+    LandmarkAnnotator landmarkAnnotator = createLandmarkAnnotator(context, metricRegistry);
+    context.setAttribute(LandmarkAnnotator.class.getName(), landmarkAnnotator);
+
+    LandmarkCache landmarkCache =
+        new LandmarkCache(
+            DatastoreServiceFactory.getDatastoreService(),
+            Integer.getInteger("sps.landmarkCache.maxEntries", 1000),
+            Long.getLong("sps.landmarkCache.ttlMillis", 7 * 24 * 60 * 60 * 1000L));
+    context.setAttribute(LandmarkCache.class.getName(), landmarkCache);
+
+    BlobInfoCache blobInfoCache =
+        new BlobInfoCache(
+            DatastoreServiceFactory.getDatastoreService(),
+            remoteCache,
+            Integer.getInteger("sps.blobInfoCache.maxEntries", 1000),
+            Long.getLong("sps.blobInfoCache.ttlMillis", 600_000L),
+            Long.getLong("sps.remoteCache.lockMillis", 2_000L));
+    context.setAttribute(BlobInfoCache.class.getName(), blobInfoCache);
+
+    // Chunks are fetched on threads of the current request, which can call the Blobstore API.
+    BlobReader blobReader =
+        new BlobReader(
+            BlobstoreServiceFactory.getBlobstoreService(),
+            blobInfoCache,
+            ThreadManager::currentRequestThreadFactory,
+            Integer.getInteger("sps.blobReader.maxParallelFetches", 4),
+            metricRegistry.getHistogram("blobReader.fetch"));
+    context.setAttribute(BlobReader.class.getName(), blobReader);
+
+    ImageDownscaler imageDownscaler =
+        new ImageDownscaler(
+            Integer.getInteger("sps.imageDownscaler.maxEdge", 640),
+            Float.parseFloat(System.getProperty("sps.imageDownscaler.jpegQuality", "0.85")),
+            Integer.getInteger("sps.imageDownscaler.numThreads", 2),
+            Integer.getInteger("sps.imageDownscaler.maxQueuedImages", 8));
+    context.setAttribute(ImageDownscaler.class.getName(), imageDownscaler);
+
+    // Images of one comment are processed on threads of the current request, like blob chunks.
+    ParallelMapper imageMapper =
+        new ParallelMapper(
+            ThreadManager::currentRequestThreadFactory,
+            Integer.getInteger("sps.imageMapper.maxParallelImages", 4));
+    context.setAttribute(ParallelMapper.class.getName(), imageMapper);
+
+    ImageValidator imageValidator =
+        new ImageValidator(
+            BlobstoreServiceFactory.getBlobstoreService(),
+            Long.getLong("sps.imageValidator.maxBytes", 20L * 1024 * 1024),
+            Long.getLong("sps.imageValidator.maxPixels", 50_000_000L));
+    context.setAttribute(ImageValidator.class.getName(), imageValidator);
+
+    ImageVariantStore imageVariantStore =
+        new ImageVariantStore(
+            DatastoreServiceFactory.getDatastoreService(), blobReader, imageDownscaler);
+    context.setAttribute(ImageVariantStore.class.getName(), imageVariantStore);
+
+    LandmarkGridIndex landmarkGridIndex =
+        new LandmarkGridIndex(
+            DatastoreServiceFactory.getDatastoreService(),
+            Double.parseDouble(System.getProperty("sps.landmarkGrid.cellDegrees", "0.1")),
+            Integer.getInteger("sps.landmarkGrid.maxPoints", 50_000),
+            Long.getLong("sps.landmarkGrid.ttlMillis", 60_000L));
+    context.setAttribute(LandmarkGridIndex.class.getName(), landmarkGridIndex);
+
+    LandmarkCounter landmarkCounter =
+        new LandmarkCounter(
+            DatastoreServiceFactory.getDatastoreService(),
+            Integer.getInteger("sps.landmarkCounter.numShards", 20));
+    context.setAttribute(LandmarkCounter.class.getName(), landmarkCounter);
+
+    CommentSearchIndex commentSearchIndex =
+        new CommentSearchIndex(
+            DatastoreServiceFactory.getDatastoreService(),
+            Integer.getInteger("sps.commentSearch.maxPostingsPerTerm", 1000),
+            Integer.getInteger("sps.commentSearch.maxCachedTerms", 256),
+            Long.getLong("sps.commentSearch.ttlMillis", 30_000L));
+    context.setAttribute(CommentSearchIndex.class.getName(), commentSearchIndex);
+
+    LandmarkEnricher landmarkEnricher =
+        new LandmarkEnricher(
+            DatastoreServiceFactory.getDatastoreService(),
+            blobReader,
+            imageDownscaler,
+            landmarkAnnotator,
+            landmarkCache,
+            commentThreadVersion,
+            commentFeedCache,
+            commentFeedSnapshot,
+            landmarkGridIndex,
+            landmarkCounter,
+            imageMapper,
+            commentSearchIndex);
+    context.setAttribute(LandmarkEnricher.class.getName(), landmarkEnricher);
+
+    CommentWriter commentWriter =
+        new CommentWriter(
+            DatastoreServiceFactory.getAsyncDatastoreService(),
+            commentThreadVersion,
+            commentFeedCache,
+            commentFeedSnapshot,
+            Integer.getInteger("sps.commentWriter.maxBatchSize", 50),
+            Long.getLong("sps.commentWriter.maxDelayMillis", 10L),
+            Integer.getInteger("sps.commentWriter.maxInFlightPuts", 4),
+            metricRegistry.getHistogram("commentWriter.put"));
+    context.setAttribute(CommentWriter.class.getName(), commentWriter);
+
+    CommentPurger commentPurger =
+        new CommentPurger(
+            DatastoreServiceFactory.getAsyncDatastoreService(),
+            BlobstoreServiceFactory.getBlobstoreService(),
+            Integer.getInteger("sps.commentPurge.batchSize", 500),
+            Integer.getInteger("sps.commentPurge.maxInFlightBatches", 4));
+    context.setAttribute(CommentPurger.class.getName(), commentPurger);
+
+    UploadUrlPool uploadUrlPool =
+        new UploadUrlPool(
+            BlobstoreServiceFactory.getBlobstoreService(),
+            "/new-comment",
+            Integer.getInteger("sps.uploadUrlPool.targetSize", 4),
+            Long.getLong("sps.uploadUrlPool.maxAgeMillis", 120_000L),
+            metricRegistry.getHistogram("uploadUrlPool.create"));
+    context.setAttribute(UploadUrlPool.class.getName(), uploadUrlPool);
+
+    CommentStreamHub commentStreamHub =
+        new CommentStreamHub(
+            Integer.getInteger("sps.commentStream.maxClients", 30),
+            Integer.getInteger("sps.commentStream.maxBufferedEvents", 32),
+            Integer.getInteger("sps.commentStream.maxReplayEvents", 50),
+            Boolean.parseBoolean(
+                System.getProperty("sps.commentStream.completeAfterEvents", "true")));
+    context.setAttribute(CommentStreamHub.class.getName(), commentStreamHub);
+
+    LandmarkTaskQueue landmarkTaskQueue =
+        new PushQueueLandmarkTaskQueue("landmark-detection", "/tasks/detect-landmark");
+    context.setAttribute(LandmarkTaskQueue.class.getName(), landmarkTaskQueue);
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    getComponent(event.getServletContext(), ImageDownscaler.class).close();
+
+    VisionClientHolder visionClientHolder =
+        getComponent(event.getServletContext(), VisionClientHolder.class);
+    if (visionClientHolder != null) {
+      visionClientHolder.close();
+    }
+  }
+
+  /**
+   * Creates the landmark annotator selected by the 'sps.landmarkAnnotator' system property. The
+   * Vision API is used unless the property is set to "fake", which detects no landmarks and lets
+   * the app run without Cloud credentials. Vision API calls from concurrent landmark tasks are
+   * batched together and share one client, which is stored in the context so that it can be
+   * closed on shutdown.
+   *
+   * @param context The {@code ServletContext} of the web app.
+   * @param metricRegistry The registry the latency of Vision API calls is recorded in.
+   * @throws IllegalStateException - If the Vision API client could not be created.
+   */
+  private LandmarkAnnotator createLandmarkAnnotator(
+      ServletContext context, MetricRegistry metricRegistry) {
+    if ("fake".equals(System.getProperty("sps.landmarkAnnotator"))) {
+      return new FakeLandmarkAnnotator(null);
+    }
+
+    VisionClientHolder visionClientHolder;
+    try {
+      visionClientHolder =
+          VisionClientHolder.create(Integer.getInteger("sps.visionClient.channelPoolSize", 2));
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Unable to create the Vision API client. Set sps.landmarkAnnotator to \"fake\" to run "
+              + "without Cloud credentials.",
+          e);
+    }
+    context.setAttribute(VisionClientHolder.class.getName(), visionClientHolder);
+
+    return new BatchingLandmarkAnnotator(
+        new VisionLandmarkAnnotator(
+            visionClientHolder, metricRegistry.getHistogram("vision.annotate")),
+        Integer.getInteger("sps.visionBatch.maxSize", 8),
+        Long.getLong("sps.visionBatch.maxDelayMillis", 20L));
+  }
+
+  /**
+   * Looks up a shared component created by this listener.
+   *
+   * @param context The {@code ServletContext} of the web app.
+   * @param componentClass The class of the component.
+   * @return The component instance.
+   */
+  static <T> T getComponent(ServletContext context, Class<T> componentClass) {
+    return componentClass.cast(context.getAttribute(componentClass.getName()));
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.blobs.UploadUrlPool;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that refills the pool of Blobstore upload URLs, run by cron.xml. */
+@WebServlet("/tasks/refill-upload-urls")
+@SuppressWarnings("serial")
+public class RefillUploadUrlsServlet extends HttpServlet {
+  private UploadUrlPool uploadUrlPool;
+
+  @Override
+  public void init() throws ServletException {
+    uploadUrlPool = PortfolioContextListener.getComponent(getServletContext(), UploadUrlPool.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles the GET requests of the upload URL refill cron job. It creates the URLs
+   * that /blobstore-upload-url hands out, off the path of user requests.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from the cron service.
+    if (request.getHeader("X-Appengine-Cron") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    uploadUrlPool.refill();
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.metrics.AllocationMeter;
+import com.google.sps.metrics.MetricRegistry;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Filter that records the latency and the bytes allocated by every request to a servlet of the
+ * app, under the name "request:" followed by the servlet path, and counts the requests that throw
+ * or answer with a server error. /comment-stream is left out, as its requests last as long as the
+ * client stays connected.
+ *
+ * <p>Allocations are read from the ThreadMXBean before and after the request, so they cover the
+ * request thread only and are not recorded where the JVM does not count them.
+ */
+@WebFilter(
+    urlPatterns = {
+      "/blobstore-upload-url",
+      "/comment-data",
+      "/comment-search",
+      "/comments-near",
+      "/delete-comments",
+      "/landmark-stats",
+      "/metrics",
+      "/new-comment",
+      "/serve-image",
+      "/stats",
+      "/tasks/detect-landmark",
+      "/tasks/landmark-rollup",
+      "/tasks/refill-upload-urls"
+    })
+public class RequestMetricsFilter implements Filter {
+
+  private MetricRegistry metricRegistry;
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    metricRegistry =
+        PortfolioContextListener.getComponent(
+            filterConfig.getServletContext(), MetricRegistry.class);
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    String name = "request:" + ((HttpServletRequest) request).getServletPath();
+    long startNanos = System.nanoTime();
+    long startBytes = AllocationMeter.getAllocatedBytes();
+    boolean failed = true;
+    try {
+      chain.doFilter(request, response);
+      failed = ((HttpServletResponse) response).getStatus() >= 500;
+    } finally {
+      metricRegistry.getHistogram(name).record(System.nanoTime() - startNanos);
+      if (startBytes >= 0) {
+        metricRegistry
+            .getAllocationHistogram(name)
+            .recordValue(AllocationMeter.getAllocatedBytes() - startBytes);
+      }
+      if (failed) {
+        metricRegistry.getErrorCounter(name).incrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
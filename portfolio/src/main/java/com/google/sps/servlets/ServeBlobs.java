@@ -11,13 +11,16 @@
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
 // limitations under the License.
-
 package com.google.sps.servlets;
 
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.protobuf.ByteString;
+import com.google.sps.blobs.BlobInfoCache;
+import com.google.sps.images.ImageVariantStore;
 import java.io.IOException;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -27,17 +30,87 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet("/serve-image")
 @SuppressWarnings("serial")
 public class ServeBlobs extends HttpServlet {
+
+  /** Blobs and their variants never change, so they may be cached for as long as possible. */
+  private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
   private static BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
 
+  private ImageVariantStore imageVariantStore;
+
+  private BlobInfoCache blobInfoCache;
+
+  @Override
+  public void init() throws ServletException {
+    imageVariantStore =
+        PortfolioContextListener.getComponent(getServletContext(), ImageVariantStore.class);
+    blobInfoCache = PortfolioContextListener.getComponent(getServletContext(), BlobInfoCache.class);
+  }
+
   /**
    * {@inheritDoc}
    *
    * <p>This Method handles GET requests in order to serve files uploaded to Blobstore based on the
    * blob key placed in the URL query string.
+   *
+   * <p>If the optional 'size' parameter is given (one of {@link ImageVariantStore#VARIANT_SIZES}),
+   * a JPEG variant of the image that fits within size x size pixels is served instead of the
+   * original. Variants are created on their first request and stored for later requests.
+   *
+   * <p>Successful responses carry an ETag derived from the blob key and size along with an
+   * immutable Cache-Control header, and requests whose If-None-Match matches the ETag are answered
+   * with 304 Not Modified. Errors are sent without these headers, so that they are not cached. The
+   * existence of a blob is checked in the {@link BlobInfoCache} first, so that an unknown or
+   * deleted blob is answered with 404 Not Found whether or not a size or an ETag is given.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     BlobKey blobKey = new BlobKey(request.getParameter("blob-key"));
+
+    Integer size = null;
+    String sizeString = request.getParameter("size");
+    if (sizeString != null) {
+      try {
+        size = Integer.valueOf(sizeString);
+      } catch (NumberFormatException e) {
+        size = null;
+      }
+      if (size == null || !ImageVariantStore.VARIANT_SIZES.contains(size)) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported image size.");
+        return;
+      }
+    }
+
+    if (blobInfoCache.get(blobKey) == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown blob key.");
+      return;
+    }
+
+    String eTag = "\"" + blobKey.getKeyString() + (size == null ? "" : "-" + size) + "\"";
+    if (ConditionalGet.matchesIfNoneMatch(request, eTag)) {
+      setCacheHeaders(response, eTag);
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    if (size != null) {
+      ByteString variantBytes = imageVariantStore.getVariant(blobKey, size);
+      if (variantBytes != null) {
+        setCacheHeaders(response, eTag);
+        response.setContentType("image/jpeg");
+        response.setContentLength(variantBytes.size());
+        variantBytes.writeTo(response.getOutputStream());
+        return;
+      }
+    }
+
+    setCacheHeaders(response, eTag);
     blobstoreService.serve(blobKey, response);
   }
+
+  /** Marks a successful response as cacheable for as long as possible. */
+  private static void setCacheHeaders(HttpServletResponse response, String eTag) {
+    response.setHeader("ETag", eTag);
+    response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+  }
 }
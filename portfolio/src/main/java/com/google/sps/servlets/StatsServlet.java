@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.blobs.BlobInfoCache;
+import com.google.sps.blobs.UploadUrlPool;
+import com.google.sps.cache.CommentFeedCache;
+import com.google.sps.cache.TieredCache;
+import com.google.sps.comments.CommentPurger;
+import com.google.sps.comments.CommentWriter;
+import com.google.sps.json.JsonAdapters;
+import com.google.sps.landmarks.BatchingLandmarkAnnotator;
+import com.google.sps.landmarks.LandmarkAnnotator;
+import com.google.sps.landmarks.LandmarkCache;
+import com.google.sps.metrics.MetricRegistry;
+import com.google.sps.search.CommentSearchIndex;
+import com.google.sps.stream.CommentStreamHub;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servlet that returns the counters of the in-process caches of this instance. */
+@WebServlet("/stats")
+@SuppressWarnings("serial")
+public class StatsServlet extends HttpServlet {
+  private CommentFeedCache commentFeedCache;
+
+  private LandmarkAnnotator landmarkAnnotator;
+
+  private LandmarkCache landmarkCache;
+
+  private CommentPurger commentPurger;
+
+  private CommentWriter commentWriter;
+
+  private MetricRegistry metricRegistry;
+
+  private UploadUrlPool uploadUrlPool;
+
+  private CommentSearchIndex commentSearchIndex;
+
+  private BlobInfoCache blobInfoCache;
+
+  private CommentStreamHub commentStreamHub;
+
+  @Override
+  public void init() throws ServletException {
+    commentFeedCache =
+        PortfolioContextListener.getComponent(getServletContext(), CommentFeedCache.class);
+    landmarkAnnotator =
+        PortfolioContextListener.getComponent(getServletContext(), LandmarkAnnotator.class);
+    landmarkCache = PortfolioContextListener.getComponent(getServletContext(), LandmarkCache.class);
+    commentPurger = PortfolioContextListener.getComponent(getServletContext(), CommentPurger.class);
+    commentWriter = PortfolioContextListener.getComponent(getServletContext(), CommentWriter.class);
+    metricRegistry =
+        PortfolioContextListener.getComponent(getServletContext(), MetricRegistry.class);
+    uploadUrlPool = PortfolioContextListener.getComponent(getServletContext(), UploadUrlPool.class);
+    commentSearchIndex =
+        PortfolioContextListener.getComponent(getServletContext(), CommentSearchIndex.class);
+    blobInfoCache = PortfolioContextListener.getComponent(getServletContext(), BlobInfoCache.class);
+    commentStreamHub =
+        PortfolioContextListener.getComponent(getServletContext(), CommentStreamHub.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This Method handles GET requests for /stats. The content of the response is a JSON object
+   * mapping the name of each cache to its hit ratio and its hit, miss, eviction and expiration
+   * counters, along with the remote hits and loads of the two-level caches, the number of Vision
+   * API batch calls and the images they annotated, the number of comment puts and the comments they
+   * stored, the progress of comment purges, the use of the upload URL pool, the posting lists read
+   * by searches, the clients of the comment stream and the latency histograms of this instance.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("commentFeedCache", commentFeedCache.getStats());
+    stats.put("commentFeedLoads", getLoadStats(commentFeedCache));
+    stats.put("blobInfoCache", blobInfoCache.getStats());
+    stats.put("blobInfoLoads", getLoadStats(blobInfoCache));
+    stats.put("landmarkCache", landmarkCache.getStats());
+    if (landmarkAnnotator instanceof BatchingLandmarkAnnotator) {
+      BatchingLandmarkAnnotator batchingAnnotator = (BatchingLandmarkAnnotator) landmarkAnnotator;
+      Map<String, Long> batchStats = new LinkedHashMap<>();
+      batchStats.put("batches", batchingAnnotator.getNumBatches());
+      batchStats.put("images", batchingAnnotator.getNumImages());
+      stats.put("visionBatches", batchStats);
+    }
+
+    Map<String, Long> writeStats = new LinkedHashMap<>();
+    writeStats.put("batches", commentWriter.getNumBatches());
+    writeStats.put("comments", commentWriter.getNumComments());
+    stats.put("commentWrites", writeStats);
+
+    Map<String, Long> purgeStats = new LinkedHashMap<>();
+    purgeStats.put("batches", commentPurger.getNumBatches());
+    purgeStats.put("comments", commentPurger.getNumCommentsDeleted());
+    purgeStats.put("blobs", commentPurger.getNumBlobsDeleted());
+    stats.put("commentPurge", purgeStats);
+
+    Map<String, Long> uploadUrlStats = new LinkedHashMap<>();
+    uploadUrlStats.put("served", uploadUrlPool.getNumServed());
+    uploadUrlStats.put("depleted", uploadUrlPool.getNumDepleted());
+    uploadUrlStats.put("expired", uploadUrlPool.getNumExpired());
+    uploadUrlStats.put("created", uploadUrlPool.getNumCreated());
+    uploadUrlStats.put("size", (long) uploadUrlPool.getSize());
+    stats.put("uploadUrlPool", uploadUrlStats);
+
+    Map<String, Long> searchStats = new LinkedHashMap<>();
+    searchStats.put("cachedTerms", commentSearchIndex.getNumHits());
+    searchStats.put("loadedTerms", commentSearchIndex.getNumMisses());
+    stats.put("commentSearch", searchStats);
+    Map<String, Long> streamStats = new LinkedHashMap<>();
+    streamStats.put("clients", (long) commentStreamHub.getNumClients());
+    streamStats.put("published", commentStreamHub.getNumPublished());
+    streamStats.put("evicted", commentStreamHub.getNumEvicted());
+    stats.put("commentStream", streamStats);
+    stats.put("latency", metricRegistry.getHistogramSnapshots());
+
+    response.setContentType("application/json;");
+    response.getWriter().println(JsonAdapters.GSON.toJson(stats));
+  }
+
+  /**
+   * Returns the number of process misses of a two-level cache that were answered from the remote
+   * cache, loaded by this instance or coalesced with a load in progress.
+   */
+  private static Map<String, Long> getLoadStats(TieredCache<?> cache) {
+    Map<String, Long> loadStats = new LinkedHashMap<>();
+    loadStats.put("remoteHits", cache.getNumRemoteHits());
+    loadStats.put("loads", cache.getNumLoads());
+    loadStats.put("coalesced", cache.getNumCoalescedLoads());
+    return loadStats;
+  }
+}
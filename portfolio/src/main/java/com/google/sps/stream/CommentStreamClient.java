@@ -0,0 +1,189 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.stream;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * One client of the {@link CommentStreamHub}, connected to /comment-stream.
+ *
+ * <p>Frames are queued and written with non-blocking I/O: they are written as long as the output
+ * stream is ready, and the rest are written from {@link #onWritePossible()} once the container has
+ * sent the earlier bytes. No thread waits for a slow client, and a client whose queue is full is
+ * reported to the hub, which evicts it.
+ *
+ * <p>With {@code completeAfterEvents} set, the stream is completed once every queued comment has
+ * been written, so that a runtime that buffers responses sends them (see {@link
+ * CommentStreamHub}).
+ *
+ * <p>This class is thread-safe.
+ */
+class CommentStreamClient implements WriteListener, AsyncListener {
+
+  private final CommentStreamHub hub;
+
+  private final AsyncContext asyncContext;
+
+  private final int maxBufferedEvents;
+
+  private final boolean completeAfterEvents;
+
+  /** Set once a comment frame has been queued. Guarded by {@code this}. */
+  private boolean hasEvents = false;
+
+  /** Frames waiting for the output stream to be ready. Guarded by {@code this}. */
+  private final ArrayDeque<byte[]> pendingFrames = new ArrayDeque<>();
+
+  /** Set once the write listener is registered. Guarded by {@code this}. */
+  private ServletOutputStream out;
+
+  /** Guarded by {@code this}. */
+  private boolean closed = false;
+
+  /**
+   * @param hub The hub the client is registered with.
+   * @param asyncContext The started asynchronous context of the /comment-stream request.
+   * @param maxBufferedEvents The maximum number of frames waiting to be sent.
+   * @param completeAfterEvents Whether the stream is completed once its comments are written.
+   */
+  CommentStreamClient(
+      CommentStreamHub hub,
+      AsyncContext asyncContext,
+      int maxBufferedEvents,
+      boolean completeAfterEvents) {
+    this.hub = hub;
+    this.asyncContext = asyncContext;
+    this.maxBufferedEvents = maxBufferedEvents;
+    this.completeAfterEvents = completeAfterEvents;
+  }
+
+  /**
+   * Registers the client as the write listener of the response and queues the first frames, which
+   * are all written before the stream may be completed.
+   *
+   * @param firstFrame The frame that opens the stream.
+   * @param replayedFrames The comment frames the client missed.
+   * @throws IOException - If the output stream of the response could not be obtained.
+   */
+  synchronized void start(byte[] firstFrame, List<byte[]> replayedFrames) throws IOException {
+    pendingFrames.add(firstFrame);
+    pendingFrames.addAll(replayedFrames);
+    hasEvents = !replayedFrames.isEmpty();
+    out = asyncContext.getResponse().getOutputStream();
+    // The container calls onWritePossible() once the stream is ready for the first frame.
+    out.setWriteListener(this);
+  }
+
+  /**
+   * Queues a frame and writes as much of the queue as the output stream accepts.
+   *
+   * @return False if the queue is full, in which case the frame is dropped.
+   */
+  synchronized boolean offer(byte[] frame) {
+    if (closed) {
+      return true;
+    }
+    if (pendingFrames.size() >= maxBufferedEvents) {
+      return false;
+    }
+    pendingFrames.add(frame);
+    hasEvents = true;
+    drain();
+    return true;
+  }
+
+  /** Ends the stream. Frames that were not sent yet are dropped. */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    pendingFrames.clear();
+    try {
+      asyncContext.complete();
+    } catch (IllegalStateException e) {
+      // The container already completed the request.
+    }
+  }
+
+  @Override
+  public synchronized void onWritePossible() {
+    drain();
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    hub.remove(this);
+    close();
+  }
+
+  @Override
+  public void onComplete(AsyncEvent event) {
+    hub.remove(this);
+    synchronized (this) {
+      closed = true;
+      pendingFrames.clear();
+    }
+  }
+
+  @Override
+  public void onTimeout(AsyncEvent event) {
+    // Streams are ended after a while so that clients reconnect, possibly to another instance.
+    hub.remove(this);
+    close();
+  }
+
+  @Override
+  public void onError(AsyncEvent event) {
+    hub.remove(this);
+    close();
+  }
+
+  @Override
+  public void onStartAsync(AsyncEvent event) {}
+
+  /**
+   * Writes queued frames while the output stream is ready. Once it is not, the container calls
+   * {@link #onWritePossible()} when it is again.
+   */
+  private void drain() {
+    if (closed || out == null) {
+      return;
+    }
+    try {
+      while (!pendingFrames.isEmpty() && out.isReady()) {
+        out.write(pendingFrames.poll());
+      }
+      if (pendingFrames.isEmpty() && out.isReady()) {
+        out.flush();
+        if (completeAfterEvents && hasEvents) {
+          hub.remove(this);
+          close();
+        }
+      }
+    } catch (IOException | IllegalStateException e) {
+      // The client went away.
+      hub.remove(this);
+      close();
+    }
+  }
+}
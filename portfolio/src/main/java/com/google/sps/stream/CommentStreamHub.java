@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.stream;
+
+import com.google.sps.data.Comment;
+import com.google.sps.json.JsonAdapters;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.AsyncContext;
+
+/**
+ * Fans new comments out to the clients connected to /comment-stream, as Server-Sent Events.
+ *
+ * <p>Each comment is serialized into an SSE frame once, and the same bytes are handed to every
+ * client. Clients are written to with non-blocking I/O (see {@link CommentStreamClient}), so an
+ * idle connection holds a small buffer but no thread, and publishing never waits for a client. A
+ * client whose unsent frames exceed {@code maxBufferedEvents} is evicted; it reconnects and
+ * catches up through the replay buffer.
+ *
+ * <p>The hub keeps the last {@code maxReplayEvents} frames, so that a client that reconnects with
+ * a Last-Event-ID header receives the comments it missed. A new client, without the header, only
+ * receives comments published after it connected. Event ids are only meaningful to the
+ * instance that issued them, and every App Engine instance has its own hub, so a client only
+ * receives the comments submitted through the instance it is connected to.
+ *
+ * <p>Runtimes that buffer responses, such as the App Engine Java 8 standard runtime, send nothing
+ * until the response is complete. With {@code completeAfterEvents} set, a stream is therefore
+ * completed as soon as the comments queued for it have been written, which turns every stream
+ * into a long poll: the client receives the comments at once, then reconnects with the id of the
+ * last one and resumes from the replay buffer.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CommentStreamHub {
+
+  /** The first frame of every stream, asking clients to wait this long before reconnecting. */
+  private static final byte[] RETRY_FRAME = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+
+  private final int maxClients;
+
+  private final int maxBufferedEvents;
+
+  private final int maxReplayEvents;
+
+  private final boolean completeAfterEvents;
+
+  /** Tells the event ids of this hub from ids issued by other instances or before a restart. */
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+  private final Set<CommentStreamClient> clients = ConcurrentHashMap.newKeySet();
+
+  /** The most recent frames, oldest first. Guarded by {@code this}. */
+  private final ArrayDeque<Event> recentEvents = new ArrayDeque<>();
+
+  /** The sequence number of the last published event. Guarded by {@code this}. */
+  private long lastSequence = 0;
+
+  private long numEvicted = 0;
+
+  /**
+   * @param maxClients The maximum number of clients connected at the same time.
+   * @param maxBufferedEvents The maximum number of frames waiting to be sent to one client.
+   * @param maxReplayEvents The number of recent frames replayed to reconnecting clients.
+   * @param completeAfterEvents Whether a stream is completed once it has sent comments, for
+   *     runtimes that only send a response once it is complete.
+   */
+  public CommentStreamHub(
+      int maxClients, int maxBufferedEvents, int maxReplayEvents, boolean completeAfterEvents) {
+    this.maxClients = maxClients;
+    this.maxBufferedEvents = maxBufferedEvents;
+    this.maxReplayEvents = maxReplayEvents;
+    this.completeAfterEvents = completeAfterEvents;
+  }
+
+  /** Returns true if no more clients may connect. */
+  public boolean isFull() {
+    return clients.size() >= maxClients;
+  }
+
+  /**
+   * Starts streaming to a client. The response of {@code asyncContext} must not have been written
+   * to yet.
+   *
+   * @param asyncContext The started asynchronous context of the /comment-stream request.
+   * @param lastEventId The value of the Last-Event-ID request header (null if there is none).
+   * @throws IOException - If the output stream of the response could not be obtained.
+   */
+  public void subscribe(AsyncContext asyncContext, String lastEventId) throws IOException {
+    CommentStreamClient client =
+        new CommentStreamClient(this, asyncContext, maxBufferedEvents, completeAfterEvents);
+    asyncContext.addListener(client);
+    synchronized (this) {
+      // Registering and replaying under the lock means no frame is skipped or sent twice.
+      List<byte[]> replayedFrames = new ArrayList<>();
+      long lastSeenSequence = parseSequence(lastEventId);
+      for (Event event : recentEvents) {
+        if (event.sequence > lastSeenSequence) {
+          replayedFrames.add(event.frame);
+        }
+      }
+      clients.add(client);
+      client.start(RETRY_FRAME, replayedFrames);
+    }
+  }
+
+  /**
+   * Sends a new comment to every connected client.
+   *
+   * @param comment The comment that was just stored.
+   */
+  public synchronized void publish(Comment comment) {
+    long sequence = ++lastSequence;
+    byte[] frame =
+        ("id: "
+                + epoch
+                + "-"
+                + sequence
+                + "\nevent: comment\ndata: "
+                + JsonAdapters.GSON.toJson(comment)
+                + "\n\n")
+            .getBytes(StandardCharsets.UTF_8);
+    recentEvents.add(new Event(sequence, frame));
+    while (recentEvents.size() > maxReplayEvents) {
+      recentEvents.poll();
+    }
+
+    for (CommentStreamClient client : clients) {
+      offer(client, frame);
+    }
+  }
+
+  /** Returns the number of clients currently connected. */
+  public int getNumClients() {
+    return clients.size();
+  }
+
+  /** Returns the number of events published since the hub was created. */
+  public synchronized long getNumPublished() {
+    return lastSequence;
+  }
+
+  /** Returns the number of clients disconnected because they did not keep up with the events. */
+  public synchronized long getNumEvicted() {
+    return numEvicted;
+  }
+
+  /** Forgets a client whose stream has ended. Called by the client. */
+  void remove(CommentStreamClient client) {
+    clients.remove(client);
+  }
+
+  /** Queues a frame for a client, evicting the client if its buffer is full. */
+  private void offer(CommentStreamClient client, byte[] frame) {
+    if (!client.offer(frame)) {
+      numEvicted++;
+      clients.remove(client);
+      client.close();
+    }
+  }
+
+  /**
+   * Returns the sequence number of the last event a client has seen. Only ids issued by this hub
+   * are replayed from; a missing id, or one issued elsewhere, means the client starts from the
+   * current event, so that a page that loaded the thread does not receive its newest comments
+   * again. Must be called with the lock held.
+   */
+  private long parseSequence(String lastEventId) {
+    String prefix = epoch + "-";
+    if (lastEventId == null || !lastEventId.startsWith(prefix)) {
+      return lastSequence;
+    }
+    try {
+      long sequence = Long.parseLong(lastEventId.substring(prefix.length()));
+      return sequence >= 0 && sequence <= lastSequence ? sequence : lastSequence;
+    } catch (NumberFormatException e) {
+      return lastSequence;
+    }
+  }
+
+  /** A serialized SSE frame along with its sequence number. */
+  private static class Event {
+    private final long sequence;
+    private final byte[] frame;
+
+    private Event(long sequence, byte[] frame) {
+      this.sequence = sequence;
+      this.frame = frame;
+    }
+  }
+}
@@ -14,23 +14,30 @@
 
 
 /**
- * Fetches the previously entered comments from the server and inserts each
- * comment as a list item of the 'comments-thread-container' <ul> element.
+ * Fetches the most recent page of previously entered comments from the server
+ * and inserts each comment as a list item of the 'comments-thread-container'
+ * <ul> element.
  * 
- * The number of comments displayed is determined by 
+ * The number of comments requested (and displayed) is determined by 
  * getNumCommentstoDisplay().
  */
 function getCommentsThread() {
-  fetch('/comment-data')
+  const numCommentsToDisplay = getNumCommentstoDisplay();
+  document.getElementById('num-comments').value = numCommentsToDisplay;
+
+  // The server always returns at least one comment per page.
+  const pageSize = Math.max(numCommentsToDisplay, 1);
+  fetch('/comment-data?page-size=' + pageSize)
       .then(response => response.json())
-      .then((commentsThread) => {
-        numCommentsToDisplay = getNumCommentstoDisplay(commentsThread.length);
-        document.getElementById('num-comments').value = numCommentsToDisplay;
+      .then((commentsPage) => {
+        const commentsThread = commentsPage.comments;
+        const numComments = Math.min(numCommentsToDisplay,
+                                     commentsThread.length);
 
         const commentsThreadContainer = document.
             getElementById('comments-thread-container');
         commentsThreadContainer.innerHTML = '';
-        for (let cmntIdx = 0; cmntIdx < numCommentsToDisplay; cmntIdx++) {
+        for (let cmntIdx = 0; cmntIdx < numComments; cmntIdx++) {
           commentsThreadContainer.appendChild(
               createListElement(commentsThread[cmntIdx]));
         }
@@ -46,24 +53,22 @@ function getCommentsThread() {
 
 /**
  * Determines the number of comments that should be displayed in the comments
- * thread based on the the current user selection, the last user selection 
- * cached in the session, and the total number of comments stored in the 
- * database.
+ * thread based on the the current user selection and the last user selection 
+ * cached in the session.
  * 
  * An option to determine the maximum number of comments is implemented
  * using a Query String parameter created from the num-comments form. When
  * the page is (re-)loaded, the number of comments displayed is determined
  * using the cached value corresponding to the selection in the previous 
  * session. Otherwise, the most recently submitted number selection will be
- * used. The number of comments will also never exceed the number of total
+ * used. This number is used as the page size of the request to the server, so
+ * the number of comments displayed will also never exceed the number of total
  * comments returned from the datastore.
  * 
- * @param {number} numComments The number of comments stored in the Cloud
- *    Datastore.
  * @return {number} The number of comments to be displayed in the comments 
  *    thread.
  */
-function getNumCommentstoDisplay(numComments) {
+function getNumCommentstoDisplay() {
   const urlParams = new URLSearchParams(window.location.search);
   let newNumCommentsToDisplay = urlParams.get('num-comments');
   const currNumCommentsToDisplay = parseInt(
@@ -80,40 +85,40 @@ function getNumCommentstoDisplay(numComments) {
   } else {
     sessionStorage.setItem('currNumCommentsToDisplay', newNumCommentsToDisplay);
   }
-  return Math.min(newNumCommentsToDisplay, numComments);
+  return parseInt(newNumCommentsToDisplay);
 }
 
 /**
  * Creates an <li> element containing the comment data.
  *
- * Each comment contains a message text, image, landmark name/location,
- * and landmark latitude-longitude coordinates. However, both the blobKey
- * and landmark fields of the comment JSON object can be null. If the  
- * blobKey value null, no image element is included in the parent <li> element.
- * If the landmark value is null, no landmark information is included. 
+ * Each comment contains a message text, images, landmark names/locations,
+ * and landmark latitude-longitude coordinates. However, both the blobKeys
+ * and landmarks arrays of the comment JSON object can be empty. One image
+ * element is included in the parent <li> element per blob key, and one
+ * landmark name and location per landmark.
  * 
  * @param {JSON} commentInJson A string that contains a JSON object of an 
  *    individual comment. This JSON object contains fields for message text,
- *    image, landmark name, and landmark latitude-longitude coordinates.
+ *    images, landmark names, and landmark latitude-longitude coordinates.
  * @return {HTMLLIElement} The list element created.
  */
 function createListElement(commentInJson) {
   const text = commentInJson.text;
-  const blobKey = commentInJson.blobKey;
-  const landmark = commentInJson.landmark;
+  const blobKeys = commentInJson.blobKeys || [];
+  const landmarks = commentInJson.landmarks || [];
 
   const liElement = document.createElement('li');
   const textElement = document.createElement('p');
   textElement.innerText = text;
   liElement.appendChild(textElement);
 
-  if (blobKey != null) {
+  for (const blobKey of blobKeys) {
     const imageElement = document.createElement('img');
-    imageElement.src = "/serve-image?blob-key=" + blobKey.blobKey;
+    imageElement.src = "/serve-image?blob-key=" + blobKey.blobKey + "&size=320";
     liElement.appendChild(imageElement);
   }
 
-  if (landmark != null) {
+  for (const landmark of landmarks) {
     const landmarkNameElement = document.createElement('p');
     landmarkNameElement.innerText = landmark.name;
     const landmarkLatLng = document.createElement('p');
@@ -125,6 +130,33 @@ function createListElement(commentInJson) {
   return liElement;
 }
 
+/**
+ * Opens a Server-Sent Events stream to /comment-stream and inserts every new
+ * comment at the top of the 'comments-thread-container' <ul> element, so
+ * that the thread stays current without re-fetching /comment-data.
+ *
+ * The oldest displayed comments are removed so that no more comments than
+ * getNumCommentstoDisplay() are shown. The browser reconnects on its own
+ * when the stream ends, and receives the comments it missed.
+ */
+function subscribeToCommentStream() {
+  if (!window.EventSource) {
+    return;
+  }
+  const commentStream = new EventSource('/comment-stream');
+  commentStream.addEventListener('comment', (event) => {
+    const numCommentsToDisplay = getNumCommentstoDisplay();
+    const commentsThreadContainer = document.
+        getElementById('comments-thread-container');
+    commentsThreadContainer.insertBefore(
+        createListElement(JSON.parse(event.data)),
+        commentsThreadContainer.firstChild);
+    while (commentsThreadContainer.children.length > numCommentsToDisplay) {
+      commentsThreadContainer.removeChild(commentsThreadContainer.lastChild);
+    }
+  });
+}
+
 /**
  * Fetches the URL that points to Blobstore and assigns the value of the
  * commment submission form's action element to this URL. 
@@ -159,5 +191,6 @@ function fetchBlobstoreUrl() {
 function loadPage() {
   fetchBlobstoreUrl();
   getCommentsThread();
+  subscribeToCommentStream();
 }
 window.onload = loadPage;
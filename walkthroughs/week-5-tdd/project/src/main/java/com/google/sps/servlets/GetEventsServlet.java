@@ -15,7 +15,7 @@
 package com.google.sps.servlets;
 
 import com.google.sps.Events;
-import com.google.gson.Gson;
+import com.google.sps.JsonAdapters;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -26,8 +26,7 @@ import javax.servlet.http.HttpServletResponse;
 public class GetEventsServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
-    String jsonResponse = gson.toJson(Events.events);
+    String jsonResponse = JsonAdapters.GSON.toJson(Events.events);
 
     // Send the JSON back as the response
     response.setContentType("application/json");
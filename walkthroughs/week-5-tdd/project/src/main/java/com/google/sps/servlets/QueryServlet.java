@@ -16,6 +16,7 @@ package com.google.sps.servlets;
 
 import com.google.sps.Events;
 import com.google.sps.FindMeetingQuery;
+import com.google.sps.JsonAdapters;
 import com.google.sps.MeetingRequest;
 import com.google.sps.TimeRange;
 import com.google.gson.Gson;
@@ -31,7 +32,7 @@ import javax.servlet.http.HttpServletResponse;
 public class QueryServlet extends HttpServlet {
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
+    Gson gson = JsonAdapters.GSON;
 
     // Convert the JSON to an instance of MeetingRequest.
     MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
@@ -0,0 +1,65 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.gson.Gson;
+import java.util.Arrays;
+import java.util.Collection;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class JsonAdaptersTest {
+  private static final Gson REFLECTIVE_GSON = new Gson();
+
+  @Test
+  public void timeRangeMatchesReflectiveJson() {
+    TimeRange range = TimeRange.fromStartDuration(TimeRange.getTimeInMinutes(8, 30), 45);
+
+    String json = JsonAdapters.GSON.toJson(range);
+
+    Assert.assertEquals(REFLECTIVE_GSON.toJson(range), json);
+    Assert.assertEquals(range, JsonAdapters.GSON.fromJson(json, TimeRange.class));
+  }
+
+  @Test
+  public void eventsMatchReflectiveJson() {
+    String json = JsonAdapters.GSON.toJson(Events.events);
+
+    Assert.assertEquals(REFLECTIVE_GSON.toJson(Events.events), json);
+    Assert.assertArrayEquals(Events.events, JsonAdapters.GSON.fromJson(json, Event[].class));
+  }
+
+  @Test
+  public void eventWithoutAttendees() {
+    Event event = new Event("Event 1", TimeRange.WHOLE_DAY, Arrays.asList());
+
+    String json = JsonAdapters.GSON.toJson(event);
+
+    Assert.assertEquals(REFLECTIVE_GSON.toJson(event), json);
+    Assert.assertEquals(event, JsonAdapters.GSON.fromJson(json, Event.class));
+  }
+
+  @Test
+  public void collectionOfTimeRanges() {
+    Collection<TimeRange> ranges =
+        Arrays.asList(TimeRange.fromStartEnd(0, 30, false), TimeRange.fromStartEnd(60, 90, true));
+
+    Assert.assertEquals(REFLECTIVE_GSON.toJson(ranges), JsonAdapters.GSON.toJson(ranges));
+  }
+}